@@ -0,0 +1,232 @@
+package omer.set;
+
+/**
+ * A precomputed table of the features of every card in the deck.
+ * The features of all cards are kept in one flat primitive array (featureCount values per card), and whenever every
+ * feature value fits in 2 bits they are also packed into a single long word per card (2 bits per feature).
+ */
+public class CardCodec {
+
+    /**
+     * The largest flat table (in ints) the codec will allocate. Bigger decks are decoded arithmetically on demand.
+     */
+    private static final int MAX_TABLE_SIZE = 1 << 24;
+
+    /**
+     * Bits used by each feature in a packed card word.
+     */
+    private static final int BITS_PER_FEATURE = 2;
+
+    private final int featureCount;
+    private final int featureSize;
+    private final int deckSize;
+
+    /**
+     * The weight of each feature in a card id (i.e. card = sum of features[i] * weights[i]).
+     */
+    private final int[] weights;
+
+    /**
+     * The features of card c are at features[c * featureCount ... (c + 1) * featureCount - 1] (null if too large).
+     */
+    private final int[] features;
+
+    /**
+     * The features of each card packed at 2 bits per feature, feature i at bits 2i..2i+1 (null if they don't fit).
+     */
+    private final long[] packed;
+
+    /**
+     * The low bit of every feature lane in a packed word.
+     */
+    private final long lowLanes;
+
+    public CardCodec(Config config) {
+        featureCount = config.featureCount;
+        featureSize = config.featureSize;
+        deckSize = config.deckSize;
+
+        weights = new int[featureCount];
+        for (int i = featureCount - 1, weight = 1; i >= 0; --i, weight *= featureSize)
+            weights[i] = weight;
+
+        long tableSize = (long) deckSize * featureCount;
+        features = tableSize <= MAX_TABLE_SIZE ? new int[(int) tableSize] : null;
+        if (features != null)
+            for (int card = 0; card < deckSize; ++card)
+                decode(card, features, card * featureCount);
+
+        boolean packable = features != null && featureSize <= 1 << BITS_PER_FEATURE
+                && featureCount * BITS_PER_FEATURE <= Long.SIZE;
+        long low = 0;
+        for (int i = 0; packable && i < featureCount; ++i)
+            low |= 1L << (i * BITS_PER_FEATURE);
+        lowLanes = low;
+        packed = packable ? new long[deckSize] : null;
+        if (packed != null)
+            for (int card = 0; card < deckSize; ++card) {
+                long word = 0;
+                for (int i = 0; i < featureCount; ++i)
+                    word |= (long) features[card * featureCount + i] << (i * BITS_PER_FEATURE);
+                packed[card] = word;
+            }
+    }
+
+    private void decode(int card, int[] out, int offset) {
+        for (int i = featureCount - 1; i >= 0; --i) {
+            out[offset + i] = card % featureSize;
+            card /= featureSize;
+        }
+    }
+
+    /**
+     * @param card    - the card id.
+     * @param feature - the feature index (0 to featureCount - 1).
+     * @return - the value of the feature on the card.
+     */
+    public int feature(int card, int feature) {
+        if (features != null) return features[card * featureCount + feature];
+        return (card / weights[feature]) % featureSize;
+    }
+
+    /**
+     * Copies the features of a card into the given array (of at least featureCount values).
+     *
+     * @param card - the card id.
+     * @param out  - the array to fill.
+     */
+    public void features(int card, int[] out) {
+        if (features != null) System.arraycopy(features, card * featureCount, out, 0, featureCount);
+        else decode(card, out, 0);
+    }
+
+    /**
+     * Returns the unique card that forms a legal set with the two given cards, for decks of 3 values per feature.
+     * Each feature of the third card is (-first - second) mod 3.
+     *
+     * @param first  - a card id.
+     * @param second - another card id.
+     * @return - the id of the completing card.
+     */
+    public int thirdCard(int first, int second) {
+        int third = 0;
+        for (int i = 0; i < featureCount; ++i)
+            third += ((6 - feature(first, i) - feature(second, i)) % 3) * weights[i];
+        return third;
+    }
+
+    /**
+     * Checks if three cards form a legal set, for decks of 3 values per feature.
+     * On packed words a feature is legal iff its lane is equal in all cards or the xor of its lanes is 0b11,
+     * which holds exactly for the values {0, 1, 2}.
+     *
+     * @return - true iff the three cards form a legal set.
+     */
+    public boolean testSet(int first, int second, int third) {
+        if (packed == null) return thirdCard(first, second) == third;
+        long a = packed[first], b = packed[second], c = packed[third];
+        long same = ~((a ^ b) | (b ^ c));
+        long different = a ^ b ^ c;
+        return (((same & (same >>> 1)) | (different & (different >>> 1))) & lowLanes) == lowLanes;
+    }
+
+    /**
+     * Checks many triples of cards at once: out[i] is set iff first[i], second[i] and third[i] form a legal set.
+     * On a 3-valued packed deck each triple is checked across all of its feature lanes with a few branch free word
+     * operations (see testSet); other decks compare the features one by one.
+     *
+     * @param first  - the first card of every triple.
+     * @param second - the second card of every triple.
+     * @param third  - the third card of every triple.
+     * @param out    - the results (at least as long as the input arrays).
+     */
+    public void testSets(int[] first, int[] second, int[] third, boolean[] out) {
+        int n = first.length;
+        if (packed != null && featureSize == 3) {
+            long low = lowLanes;
+            for (int i = 0; i < n; ++i) {
+                long a = packed[first[i]], b = packed[second[i]], c = packed[third[i]];
+                long same = ~((a ^ b) | (b ^ c));
+                long different = a ^ b ^ c;
+                out[i] = (((same & (same >>> 1)) | (different & (different >>> 1))) & low) == low;
+            }
+            return;
+        }
+        for (int i = 0; i < n; ++i) {
+            boolean legal = true;
+            for (int j = 0; j < featureCount && legal; ++j) {
+                int a = feature(first[i], j), b = feature(second[i], j), c = feature(third[i], j);
+                legal = (a == b) == (b == c) && (a == b || a != c);
+            }
+            out[i] = legal;
+        }
+    }
+
+    /**
+     * Checks if an array of cards forms a legal set, i.e. every feature is either equal in all of the cards or
+     * different in all of them. Each feature is checked in one pass over the cards through a bitmask of the values
+     * seen (for decks of up to 64 values per feature).
+     *
+     * @param cards - the array of cards.
+     * @return - true iff the array forms a legal set.
+     */
+    public boolean testSet(int[] cards) {
+        if (cards.length == 3 && featureSize == 3) return testSet(cards[0], cards[1], cards[2]);
+        if (featureSize > Long.SIZE) return testSetPairwise(cards);
+        for (int i = 0; i < featureCount; ++i) {
+            long seen = 0;
+            for (int card : cards)
+                seen |= 1L << feature(card, i);
+            int values = Long.bitCount(seen);
+            if ((values == 1) == (values == cards.length)) return false;
+        }
+        return true;
+    }
+
+    private boolean testSetPairwise(int[] cards) {
+        for (int i = 0; i < featureCount; ++i) {
+            boolean sameSame = true, butDifferent = true;
+            int first = feature(cards[0], i);
+            for (int j = 1; j < cards.length && sameSame; ++j)
+                sameSame = feature(cards[j], i) == first;
+            for (int j = 0; j < cards.length && butDifferent; ++j)
+                for (int k = j + 1; k < cards.length && butDifferent; ++k)
+                    butDifferent = feature(cards[j], i) != feature(cards[k], i);
+            if (sameSame == butDifferent) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the unique card that completes a legal set of featureSize cards together with featureSize - 1 given
+     * cards: each of its features is the common value if the cards agree on it, or the single missing value if the
+     * cards all differ on it.
+     *
+     * @param cards  - an array of card ids.
+     * @param length - the number of cards to use from the array (featureSize - 1).
+     * @return - the id of the completing card, or -1 if the cards cannot be completed into a legal set.
+     */
+    public int completion(int[] cards, int length) {
+        if (length != featureSize - 1 || length < 2 || featureSize > Long.SIZE) return -1;
+        long all = featureSize == Long.SIZE ? -1L : (1L << featureSize) - 1;
+        int completion = 0;
+        for (int i = 0; i < featureCount; ++i) {
+            long seen = 0;
+            for (int j = 0; j < length; ++j)
+                seen |= 1L << feature(cards[j], i);
+            int values = Long.bitCount(seen);
+            if (values == 1) completion += Long.numberOfTrailingZeros(seen) * weights[i];
+            else if (values == length) completion += Long.numberOfTrailingZeros(~seen & all) * weights[i];
+            else return -1;
+        }
+        return completion;
+    }
+
+    /**
+     * @param feature - the feature index (0 to featureCount - 1).
+     * @return - the weight of the feature in a card id (i.e. card = sum of feature(card, i) * weight(i)).
+     */
+    public int weight(int feature) {
+        return weights[feature];
+    }
+}
@@ -36,6 +36,11 @@ public class Config {
      */
     public final int deckSize;
 
+    /**
+     * Whether large set searches are split over the common fork-join pool
+     */
+    public final boolean parallelSearch;
+
     /**
      * The number of human players in the game.
      */
@@ -77,10 +82,16 @@ public class Config {
     public final long pointFreezeMillis;
 
     /**
-     * The number of milliseconds to delay before removing/placing a card on the table
+     * The number of milliseconds the ui takes to show each card removed from/placed on the table (the dealing
+     * animation - the game itself does not wait for it)
      */
     public final long tableDelayMillis;
 
+    /**
+     * Whether the dealer locks only the slots whose cards it replaces (true) or the whole table (false)
+     */
+    public final boolean stripedLocking;
+
     /**
      * The number of milliseconds to pause at the end of the game before closing
      */
@@ -91,6 +102,23 @@ public class Config {
      */
     public final long AiDelaySeconds;
 
+    /**
+     * The number of claims per second each computer player may make on average, and the number it may make in a row
+     * (a token bucket per player, 0 claims per second for no limit)
+     */
+    public final double aiClaimsPerSecond;
+    public final int aiClaimBurst;
+
+    /**
+     * The number of claims waiting for the dealer from which computer players back off their claims (0 for no limit)
+     */
+    public final int maxPendingClaims;
+
+    /**
+     * Whether computer players look for sets on the table (true) or toggle tokens on random slots (false)
+     */
+    public final boolean smartAi;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -108,7 +136,39 @@ public class Config {
     public final int columns;
 
     /**
-     * The total number of cells in the table grid
+     * What the dealer does when the cards on the table contain no legal set
+     */
+    public enum DeadTableAction {
+        /** Nothing, the players keep playing until the round times out. */
+        NONE,
+        /** End the round right away and reshuffle. */
+        RESHUFFLE,
+        /** Deal extra cards into the overflow slots, reshuffling only when there is no room left. */
+        EXPAND
+    }
+
+    /**
+     * What the dealer does when the cards on the table contain no legal set
+     */
+    public final DeadTableAction deadTableAction;
+
+    /**
+     * The number of extra rows of overflow slots below the grid (only used by DeadTableAction.EXPAND)
+     */
+    public final int overflowRows;
+
+    /**
+     * The number of rows in the grid on the screen, including the overflow rows
+     */
+    public final int gridRows;
+
+    /**
+     * The number of cards the dealer keeps on the table (i.e. rows * columns, without the overflow slots)
+     */
+    public final int boardSize;
+
+    /**
+     * The total number of cells in the table grid (including the overflow slots)
      */
     public final int tableSize;
 
@@ -150,8 +210,8 @@ public class Config {
      * The default scan codes data (this is the same as in the default config.properties file)
      */
     private static final String[] playerKeysDefaults = {
-            "81,87,69,82,65,83,68,70,90,88,67,86",
-            "85,73,79,80,74,75,76,59,77,44,46,47"};
+            "81,87,69,82,65,83,68,70,90,88,67,86,49,50,51,52",
+            "85,73,79,80,74,75,76,59,77,44,46,47,55,56,57,48"};
 
     /**
      * Attempts to read the config properties from the current working directory. Otherwise, tries to load them
@@ -160,7 +220,7 @@ public class Config {
      * @param filename - the name of the configuration file.
      * @return - a properties object with the configuration file contents.
      */
-    private static Properties loadProperties(String filename, Logger logger) {
+    public static Properties loadProperties(String filename, Logger logger) {
 
         Properties properties = new Properties();
 
@@ -202,6 +262,7 @@ public class Config {
         featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
         featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
         deckSize = (int) Math.pow(featureSize, featureCount);
+        parallelSearch = Boolean.parseBoolean(properties.getProperty("ParallelSearch", "False"));
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
@@ -214,8 +275,13 @@ public class Config {
         pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
         penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
+        stripedLocking = Boolean.parseBoolean(properties.getProperty("StripedLocking", "True"));
         endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
         AiDelaySeconds = (long) (Double.parseDouble(properties.getProperty("AiDelaySeconds", "0.1")) * 1000.0);
+        aiClaimsPerSecond = Double.parseDouble(properties.getProperty("AiClaimsPerSecond", "10"));
+        aiClaimBurst = Integer.parseInt(properties.getProperty("AiClaimBurst", "3"));
+        maxPendingClaims = Integer.parseInt(properties.getProperty("MaxPendingClaims", "2"));
+        smartAi = Boolean.parseBoolean(properties.getProperty("SmartAi", "False"));
 
         // ui settings
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
@@ -224,7 +290,11 @@ public class Config {
 
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
-        tableSize = rows * columns;
+        deadTableAction = DeadTableAction.valueOf(properties.getProperty("DeadTableAction", "Reshuffle").trim().toUpperCase());
+        overflowRows = deadTableAction == DeadTableAction.EXPAND ? Integer.parseInt(properties.getProperty("OverflowRows", "1")) : 0;
+        gridRows = rows + overflowRows;
+        boardSize = rows * columns;
+        tableSize = gridRows * columns;
         cellWidth = Integer.parseInt(properties.getProperty("CellWidth", "258"));
         cellHeight = Integer.parseInt(properties.getProperty("CellHeight", "167"));
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
@@ -232,15 +302,17 @@ public class Config {
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
 
         // keyboard input data
-        playerKeys = new int[players][rows * columns];
+        playerKeys = new int[players][tableSize];
         for (int i = 0; i < players; i++) {
             String defaultCodes = "";
             if (i < 2) defaultCodes = playerKeysDefaults[i];
             String playerKeysString = properties.getProperty("PlayerKeys" + (i + 1), defaultCodes);
             if (playerKeysString.length() > 0) {
                 String[] codes = playerKeysString.split(",");
-                if (codes.length != tableSize)
-                    logger.severe("warning: player " + (i + 1) + " keys (" + codes.length + ") mismatch table size (" + tableSize + ").");
+                // codes beyond the table size are for overflow slots that are not in use
+                if (codes.length < tableSize)
+                    logger.severe("warning: player " + (i + 1) + " keys (" + codes.length + ") mismatch table size (" + tableSize + "), slots "
+                            + codes.length + " to " + (tableSize - 1) + " cannot be selected.");
                 for (int j = 0; j < Math.min(codes.length, tableSize); ++j) // parse the key codes string
                     playerKeys[i][j] = Integer.parseInt(codes[j]);
             }
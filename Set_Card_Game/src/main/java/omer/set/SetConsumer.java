@@ -0,0 +1,15 @@
+package omer.set;
+
+/**
+ * Receives the card ids of a set, e.g. from Util::forEachSet.
+ */
+@FunctionalInterface
+public interface SetConsumer {
+
+    /**
+     * @param set - the card ids of the set (a buffer that is reused once this method returns, and must not be
+     *            modified).
+     * @return - true to receive more sets, false to stop.
+     */
+    boolean accept(int[] set);
+}
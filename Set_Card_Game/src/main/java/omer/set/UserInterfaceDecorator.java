@@ -2,9 +2,13 @@ package omer.set;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+/**
+ * Logs every update of the user interface before passing it on (the messages are built only if they are logged).
+ */
 public class UserInterfaceDecorator implements UserInterface {
 
     private final Logger logger;
@@ -21,70 +25,97 @@ public class UserInterfaceDecorator implements UserInterface {
 
     @Override
     public void placeCard(int card, int slot) {
-        logger.severe("placing card " + card + " in slot " + slot);
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("placing card " + card + " in slot " + slot);
         util.spin();
         if (ui != null) ui.placeCard(card, slot);
     }
 
     @Override
     public void removeCard(int slot) {
-        logger.severe("removing card from slot " + slot);
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("removing card from slot " + slot);
         util.spin();
         if (ui != null) ui.removeCard(slot);
     }
 
+    @Override
+    public void placeCards(int[] cards, int[] slots) {
+        if (logger.isLoggable(Level.SEVERE))
+            for (int i = 0; i < slots.length; i++)
+                logger.severe("placing card " + cards[i] + " in slot " + slots[i]);
+        util.spin();
+        if (ui != null) ui.placeCards(cards, slots);
+    }
+
+    @Override
+    public void removeCards(int[] slots) {
+        if (logger.isLoggable(Level.SEVERE))
+            for (int slot : slots)
+                logger.severe("removing card from slot " + slot);
+        util.spin();
+        if (ui != null) ui.removeCards(slots);
+    }
+
     @Override
     public void placeToken(int player, int slot) {
-        logger.severe("player " + (player + 1) + " placing token on slot " + slot);
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("player " + (player + 1) + " placing token on slot " + slot);
         util.spin();
         if (ui != null) ui.placeToken(player, slot);
     }
 
     @Override
     public void removeTokens() {
-        logger.severe("removing all tokens");
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("removing all tokens");
         util.spin();
         if (ui != null) ui.removeTokens();
     }
 
     @Override
     public void removeTokens(int slot) {
-        logger.severe("removing tokens from slot " + slot);
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("removing tokens from slot " + slot);
         util.spin();
         if (ui != null) ui.removeTokens(slot);
     }
 
     @Override
     public void removeToken(int player, int slot) {
-        logger.severe("removing player " + (player + 1) + " token from slot " + slot);
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("removing player " + (player + 1) + " token from slot " + slot);
         util.spin();
         if (ui != null) ui.removeToken(player, slot);
     }
 
     @Override
     public void setCountdown(long millies, boolean warn) {
-        if (!warn || millies % 1000L == 0L)
+        if ((!warn || millies % 1000L == 0L) && logger.isLoggable(Level.SEVERE))
             logger.severe("updating countdown to " + millies);
         if (ui != null) ui.setCountdown(millies, warn);
     }
 
     @Override
     public void setElapsed(long millies) {
-        logger.severe("updating elapsed time to " + millies);
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("updating elapsed time to " + millies);
         util.spin();
         if (ui != null) ui.setElapsed(millies);
     }
 
     @Override
     public void setFreeze(int player, long millies) {
-        logger.severe("setting player " + (player + 1) + " freeze to " + millies);
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("setting player " + (player + 1) + " freeze to " + millies);
         util.spin();
         if (ui != null) ui.setFreeze(player, millies);
     }
 
     @Override
     public void setScore(int player, int score) {
-        logger.severe("setting player " + (player + 1) + " score to " + score);
+        if (logger.isLoggable(Level.SEVERE))
+            logger.severe("setting player " + (player + 1) + " score to " + score);
         util.spin();
         if (ui != null) ui.setScore(player, score);
     }
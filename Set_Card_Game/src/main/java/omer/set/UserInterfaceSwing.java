@@ -4,10 +4,14 @@ import omer.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -108,6 +112,14 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private final boolean[][][] playerTokens;
         private final JLabel[][] tokenText;
 
+        /**
+         * The card changes waiting to be shown by the dealing animation, as {slot, card} pairs (card -1 for an empty
+         * slot). The table changes at once, and the animation shows one change every Config::tableDelayMillis.
+         */
+        private final Queue<int[]> dealing = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger dealingBacklog = new AtomicInteger();
+        private final Timer animation;
+
         private Image loadImageResource(String filename) {
             URL imageResource = getClass().getClassLoader().getResource(filename);
             if (imageResource == null)
@@ -115,9 +127,31 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             return new ImageIcon(imageResource).getImage();
         }
 
+        /**
+         * Loads the image of a card, or draws its feature values if there is no image for this deck (e.g. decks
+         * with other FeatureCount or FeatureSize values than the default).
+         */
+        private Image loadCardImage(String features) {
+            URL imageResource = getClass().getClassLoader().getResource("cards/" + features + ".png");
+            if (imageResource != null)
+                return new ImageIcon(imageResource).getImage();
+
+            BufferedImage image = new BufferedImage(config.cellWidth, config.cellHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRoundRect(4, 4, config.cellWidth - 8, config.cellHeight - 8, 16, 16);
+            g.setColor(Color.BLACK);
+            g.setFont(new Font("Monospaced", Font.BOLD, config.fontSize));
+            FontMetrics metrics = g.getFontMetrics();
+            g.drawString(features, (config.cellWidth - metrics.stringWidth(features)) / 2,
+                    (config.cellHeight + metrics.getAscent() - metrics.getDescent()) / 2);
+            g.dispose();
+            return image;
+        }
+
         private GamePanel() {
 
-            setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
+            setPreferredSize(new Dimension(config.columns * config.cellWidth, config.gridRows * config.cellHeight));
 
             // init deck and load all pictures from png files
             assert config.featureSize < 10; // otherwise there will be naming conflicts
@@ -125,13 +159,13 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             // load the image resources
             deck = new Image[config.deckSize];
             for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
+                deck[i] = loadCardImage(intInBaseToPaddedString(i, config.featureCount, config.featureSize));
             emptyCard = loadImageResource("cards/empty_card.png");
 
-            grid = new Image[config.rows][config.columns];
-            tokenText = new JLabel[config.rows][config.columns];
-            playerTokens = new boolean[config.players][config.rows][config.columns];
-            for (int row = 0; row < config.rows; row++) {
+            grid = new Image[config.gridRows][config.columns];
+            tokenText = new JLabel[config.gridRows][config.columns];
+            playerTokens = new boolean[config.players][config.gridRows][config.columns];
+            for (int row = 0; row < config.gridRows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
                     grid[row][column] = emptyCard;
@@ -146,20 +180,56 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
                     add(tokenText[row][column]);
                 }
             }
+
+            animation = new Timer((int) Math.max(1, config.tableDelayMillis), e -> animate());
+            if (config.tableDelayMillis > 0) animation.start();
+        }
+
+        /**
+         * Shows the next card change of the dealing animation (runs on the event dispatch thread).
+         * When the animation falls more than a table behind the game, it skips ahead to the last table's changes.
+         */
+        private void animate() {
+            boolean shown = false;
+            for (int[] change; (!shown || dealingBacklog.get() > config.tableSize) && (change = dealing.poll()) != null; ) {
+                dealingBacklog.decrementAndGet();
+                grid[change[0] / config.columns][change[0] % config.columns] = change[1] == -1 ? emptyCard : deck[change[1]];
+                shown = true;
+            }
+            if (shown) repaint();
+        }
+
+        private void deal(int slot, int card) {
+            if (config.tableDelayMillis > 0) {
+                dealing.add(new int[]{slot, card});
+                dealingBacklog.incrementAndGet();
+            } else {
+                grid[slot / config.columns][slot % config.columns] = card == -1 ? emptyCard : deck[card];
+            }
         }
 
         private void placeCard(int slot, int card) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            grid[row][column] = deck[card];
+            deal(slot, card);
             validate();
             repaint();
         }
 
         private void removeCard(int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            grid[row][column] = emptyCard;
+            deal(slot, -1);
+            validate();
+            repaint();
+        }
+
+        private void placeCards(int[] cards, int[] slots) {
+            for (int i = 0; i < slots.length; i++)
+                deal(slots[i], cards[i]);
+            validate();
+            repaint();
+        }
+
+        private void removeCards(int[] slots) {
+            for (int slot : slots)
+                deal(slot, -1);
             validate();
             repaint();
         }
@@ -206,7 +276,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         @Override
         public void paintComponent(Graphics g) {
             // draw card images
-            for (int row = 0; row < config.rows; row++)
+            for (int row = 0; row < config.gridRows; row++)
                 for (int column = 0; column < config.columns; column++)
                     g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
         }
@@ -284,6 +354,16 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         gamePanel.removeCard(slot);
     }
 
+    @Override
+    public void placeCards(int[] cards, int[] slots) {
+        gamePanel.placeCards(cards, slots);
+    }
+
+    @Override
+    public void removeCards(int[] slots) {
+        gamePanel.removeCards(slots);
+    }
+
     @Override
     public void placeToken(int player, int slot) {
         gamePanel.placeToken(player, slot);
@@ -333,6 +413,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void dispose() {
+        gamePanel.animation.stop();
         super.dispose();
     }
 }
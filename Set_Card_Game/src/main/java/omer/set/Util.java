@@ -31,6 +31,37 @@ public interface Util {
      */
     boolean testSet(int[] cards);
 
+    /**
+     * Checks many triples of cards at once (see testSet): out[i] is set iff first[i], second[i] and third[i] form a
+     * legal set.
+     *
+     * @param first  - the first card of every triple.
+     * @param second - the second card of every triple.
+     * @param third  - the third card of every triple.
+     * @param out    - the results (at least as long as the input arrays).
+     */
+    void testSets(int[] first, int[] second, int[] third, boolean[] out);
+
+    /**
+     * Returns the card that completes a legal set together with the two given cards.
+     * Only decks of 3 values per feature (i.e. sets of 3 cards) have a single completing card for every pair.
+     *
+     * @param first  - a card id.
+     * @param second - another card id.
+     * @return - the id of the completing card, or -1 if sets in this deck are not made of 3 cards.
+     */
+    int completionOf(int first, int second);
+
+    /**
+     * Returns the card that completes the first count cards of the array (featureSize - 1 of them) to a legal set,
+     * without copying them (generalizes completionOf(first, second) to sets of any size).
+     *
+     * @param cards - the cards.
+     * @param count - the number of cards to complete, from the start of the array.
+     * @return - the id of the completing card, or -1 if no card completes them into a legal set.
+     */
+    int completionOf(int[] cards, int count);
+
     /**
      * Finds and returns up to count sets in the given collection of cards.
      *
@@ -40,6 +71,39 @@ public interface Util {
      */
     List<int[]> findSets(List<Integer> deck, int count);
 
+    /**
+     * Finds and returns up to count sets in the given cards (see findSets(List, int)), without boxing them.
+     *
+     * @param cards - an array of distinct card ids.
+     * @param count - the maximum number of sets to find.
+     * @return - a list of up to count integer arrays, each one contains the card ids of a legal set.
+     */
+    List<int[]> findSets(int[] cards, int count);
+
+    /**
+     * Counts the sets in the given cards.
+     *
+     * @param cards - an array of distinct card ids.
+     * @return - the number of legal sets among the cards.
+     */
+    int countSets(int[] cards);
+
+    /**
+     * Checks if the given cards contain a set. Stops at the first set found.
+     *
+     * @param cards - an array of distinct card ids.
+     * @return - true iff there is at least one legal set among the cards.
+     */
+    boolean anySet(int[] cards);
+
+    /**
+     * Passes every set in the given cards to the sink, in the calling thread, until the sink returns false.
+     *
+     * @param cards - an array of distinct card ids.
+     * @param sink  - the receiver of the sets (the featureSize cards of each set are in no particular order).
+     */
+    void forEachSet(int[] cards, SetConsumer sink);
+
     /**
      * Spin a random number of times (for debugging/testing).
      */
@@ -3,8 +3,14 @@ package omer.set;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The implementation of the UserInterface interface.
@@ -13,81 +19,374 @@ public class UtilImpl implements Util {
 
     private final Config config;
 
+    /**
+     * The precomputed features of all the cards in the deck.
+     */
+    private final CardCodec codec;
+
+    /**
+     * The largest deck for which the pairwise completion table is built (deckSize * deckSize shorts).
+     * Larger decks compute completions arithmetically.
+     */
+    private static final int MAX_COMPLETION_TABLE_DECK = 1024;
+
+    /**
+     * The card completing each pair of cards: completions[first * deckSize + second] (built on first use).
+     */
+    private volatile short[] completions;
+
     public UtilImpl(Config config) {
         this.config = config;
-    }
-
-    private void cardToFeatures(int card, int[] features) {
-        for (int i = config.featureCount - 1; i >= 0; --i) {
-            features[i] = card % config.featureSize;
-            card /= config.featureSize;
-        }
+        this.codec = new CardCodec(config);
     }
 
     @Override
     public int[] cardToFeatures(int card) {
         int[] features = new int[config.featureCount];
-        cardToFeatures(card, features);
+        codec.features(card, features);
         return features;
     }
 
     @Override
     public int[][] cardsToFeatures(int[] cards) {
         int[][] features = new int[cards.length][config.featureCount];
-        IntStream.range(0, cards.length).forEach(i -> cardToFeatures(cards[i], features[i]));
+        for (int i = 0; i < cards.length; ++i)
+            codec.features(cards[i], features[i]);
         return features;
     }
 
     @Override
     public boolean testSet(int[] cards) {
-        int[][] features = cardsToFeatures(Arrays.copyOf(cards, cards.length));
-        for (int i = 0; i < config.featureCount; ++i) {
-            boolean sameSame = true, butDifferent = true;
-
-            // check if this features is sameSame in all cards
-            for (int j = 1; j < features.length; ++j)
-                if (features[0][i] != features[j][i]) {
-                    sameSame = false;
-                    break;
-                }
+        //decks too large for the completion table check triples on the packed words instead (see CardCodec)
+        if (cards.length == 3 && config.featureSize == 3 && completionTable() != null)
+            return completionOf(cards[0], cards[1]) == cards[2];
+        return codec.testSet(cards);
+    }
 
-            // check if this feature is butDifferent in all cards
-            for (int j = 1; j < features.length; ++j)
-                for (int k = j; k < features.length; ++k)
-                    if (features[j - 1][i] == features[k][i]) {
-                        butDifferent = false;
-                        break;
-                    }
+    @Override
+    public void testSets(int[] first, int[] second, int[] third, boolean[] out) {
+        codec.testSets(first, second, third, out);
+    }
 
-            if (sameSame == butDifferent) return false;
+    @Override
+    public int completionOf(int first, int second) {
+        if (config.featureSize != 3) return -1;
+        short[] table = completionTable();
+        if (table == null) return codec.thirdCard(first, second);
+        return table[first * config.deckSize + second];
+    }
+
+    @Override
+    public int completionOf(int[] cards, int count) {
+        if (count == 2 && config.featureSize == 3) return completionOf(cards[0], cards[1]);
+        return codec.completion(cards, count);
+    }
+
+    /**
+     * Returns the pairwise completion table, building it on the first call.
+     *
+     * @return - the table, or null if the deck is too large for it.
+     */
+    private short[] completionTable() {
+        short[] table = completions;
+        if (table != null || config.deckSize > MAX_COMPLETION_TABLE_DECK) return table;
+        synchronized (this) {
+            if (completions == null) {
+                int n = config.deckSize;
+                table = new short[n * n];
+                for (int first = 0; first < n; ++first)
+                    for (int second = first; second < n; ++second) {
+                        short third = (short) codec.thirdCard(first, second);
+                        table[first * n + second] = third;
+                        table[second * n + first] = third;
+                    }
+                completions = table;
+            }
+            return completions;
         }
-        return true;
     }
 
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
-        LinkedList<int[]> sets = new LinkedList<>();
-        int n = deck.size();
-        int r = config.featureSize;
-        int[] combination = new int[r];
-
-        for (int i = 0; i < r; ++i)
-            combination[i] = i;
-
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
-            if (testSet(cards)) {
-                sets.add(cards);
-                if (sets.size() >= count) return sets;
+        return findSets(deck.stream().mapToInt(Integer::intValue).toArray(), count);
+    }
+
+    @Override
+    public List<int[]> findSets(int[] cards, int count) {
+        Queue<int[]> sets = new ConcurrentLinkedQueue<>();
+        if (count <= 0) return new LinkedList<>();
+        AtomicInteger found = new AtomicInteger();
+        search(cards, true, new SearchSink() {
+            @Override
+            public boolean accept(int[] set) {
+                int index = found.getAndIncrement();
+                if (index < count) {
+                    int[] sorted = set.clone();
+                    Arrays.sort(sorted);
+                    sets.add(sorted);
+                }
+                return index + 1 < count;
+            }
+
+            @Override
+            public boolean done() {
+                return found.get() >= count;
+            }
+        });
+        return new LinkedList<>(sets);
+    }
+
+    @Override
+    public int countSets(int[] cards) {
+        LongAdder found = new LongAdder();
+        search(cards, true, new SearchSink() {
+            @Override
+            public boolean accept(int[] set) {
+                found.increment();
+                return true;
+            }
+
+            @Override
+            public boolean done() {
+                return false;
+            }
+        });
+        return found.intValue();
+    }
+
+    @Override
+    public boolean anySet(int[] cards) {
+        AtomicBoolean found = new AtomicBoolean();
+        search(cards, true, new SearchSink() {
+            @Override
+            public boolean accept(int[] set) {
+                found.set(true);
+                return false;
+            }
+
+            @Override
+            public boolean done() {
+                return found.get();
+            }
+        });
+        return found.get();
+    }
+
+    @Override
+    public void forEachSet(int[] cards, SetConsumer sink) {
+        search(cards, false, new SearchSink() {
+            private boolean stopped;
+
+            @Override
+            public boolean accept(int[] set) {
+                stopped = !sink.accept(set);
+                return !stopped;
             }
 
-            // generate next combination in lexicographic order
-            int t = r - 1;
-            while (t != 0 && combination[t] == n - r + t) --t;
-            combination[t]++;
-            for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+            @Override
+            public boolean done() {
+                return stopped;
+            }
+        });
+    }
+
+    /**
+     * Receives the sets found by a search. Must be thread safe if the search may run in parallel.
+     */
+    private interface SearchSink {
+
+        /**
+         * @param set - the cards of the set found (a buffer that is reused once this method returns).
+         * @return - true iff the search should go on.
+         */
+        boolean accept(int[] set);
+
+        /**
+         * @return - true iff the search may stop.
+         */
+        boolean done();
+    }
+
+    /**
+     * Streams all the sets among the given cards to the sink, until the sink stops the search.
+     *
+     * @param cards         - the cards to search.
+     * @param allowParallel - whether the search may run in parallel (if enabled by the configuration).
+     * @param sink          - the receiver of the sets found.
+     */
+    private void search(int[] cards, boolean allowParallel, SearchSink sink) {
+        boolean parallel = allowParallel && config.parallelSearch && cards.length >= PARALLEL_SEARCH_THRESHOLD;
+        int[] position = null;
+        if (usePrefixSearch()) {
+            position = new int[config.deckSize];
+            Arrays.fill(position, -1);
+            for (int i = 0; i < cards.length; ++i)
+                position[cards[i]] = i;
+        }
+        SetSearch search = new SetSearch(cards, position, sink, parallel, 0, cards.length);
+        if (parallel)
+            ForkJoinPool.commonPool().invoke(search);
+        else
+            search.compute();
+    }
+
+    /**
+     * @return - true iff sets are searched by completing prefixes of featureSize - 1 cards (more than 3 values per
+     * feature, and no more than fit in a long bitmask).
+     */
+    private boolean usePrefixSearch() {
+        return config.featureSize > 3 && config.featureSize <= Long.SIZE;
+    }
+
+    /**
+     * The smallest collection of cards that is searched in parallel (when enabled by the configuration).
+     */
+    private static final int PARALLEL_SEARCH_THRESHOLD = 128;
+
+    /**
+     * The smallest range of cards a parallel search task splits further.
+     */
+    private static final int PARALLEL_SEARCH_LEAF = 8;
+
+    /**
+     * A search for the sets among cards whose leading card index lies in [from, to), split in two halves of similar
+     * work when forked (all the parts share the sink).
+     */
+    private class SetSearch extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] cards;
+        private final int[] position;
+        private final SearchSink sink;
+        private final boolean parallel;
+        private final int from;
+        private final int to;
+
+        private SetSearch(int[] cards, int[] position, SearchSink sink, boolean parallel, int from, int to) {
+            this.cards = cards;
+            this.position = position;
+            this.sink = sink;
+            this.parallel = parallel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (parallel && to - from > PARALLEL_SEARCH_LEAF) {
+                int mid = config.featureSize == 3
+                        // the work for index j is proportional to j, so split the sum of squares in half
+                        ? (int) Math.sqrt(((double) from * from + (double) to * to) / 2)
+                        : (from + to) >>> 1;
+                invokeAll(new SetSearch(cards, position, sink, true, from, mid),
+                        new SetSearch(cards, position, sink, true, mid, to));
+            } else if (config.featureSize == 3)
+                searchByCompletion();
+            else if (usePrefixSearch())
+                searchByPrefixes();
+            else
+                searchByCombinations();
+        }
+
+        private void searchByCompletion() {
+            int[] set = new int[3];
+            long[] after = new long[(config.deckSize + 63) >>> 6];
+            for (int k = from; k < cards.length; ++k)
+                after[cards[k] >>> 6] |= 1L << cards[k];
+
+            for (int j = from; j < to && !sink.done(); ++j) {
+                after[cards[j] >>> 6] &= ~(1L << cards[j]);
+                for (int i = 0; i < j; ++i) {
+                    int third = completionOf(cards[i], cards[j]);
+                    if ((after[third >>> 6] & (1L << third)) != 0) {
+                        set[0] = cards[i];
+                        set[1] = cards[j];
+                        set[2] = third;
+                        if (!sink.accept(set)) return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Grows prefixes of cards in increasing index order, in which every feature is still either equal in all
+         * the cards or different in all of them. Only the second card is scanned for; every later card is generated
+         * from the values each feature may still take and looked up by its position. A prefix of featureSize - 1
+         * cards leaves exactly one value per feature, i.e. its completing card.
+         */
+        private void searchByPrefixes() {
+            int[] set = new int[config.featureSize];
+            int[] indices = new int[config.featureSize];
+            long[][] seen = new long[config.featureSize][config.featureCount];
+
+            for (int first = from; first < to && !sink.done(); ++first) {
+                set[0] = cards[first];
+                indices[0] = first;
+                for (int f = 0; f < config.featureCount; ++f)
+                    seen[0][f] = 1L << codec.feature(cards[first], f);
+
+                for (int second = first + 1; second < cards.length; ++second) {
+                    set[1] = cards[second];
+                    indices[1] = second;
+                    for (int f = 0; f < config.featureCount; ++f)
+                        seen[1][f] = seen[0][f] | 1L << codec.feature(cards[second], f);
+                    if (!extend(2, 0, 0, set, indices, seen)) return;
+                }
+            }
+        }
+
+        /**
+         * Generates the candidates for card number depth of the prefix, one feature at a time.
+         *
+         * @param depth   - the number of cards already in the prefix.
+         * @param feature - the next feature to choose a value for.
+         * @param card    - the partial card id built from the values chosen so far.
+         * @return - true iff the search should go on.
+         */
+        private boolean extend(int depth, int feature, int card, int[] set, int[] indices, long[][] seen) {
+            if (feature == config.featureCount) {
+                if (position[card] <= indices[depth - 1]) return true;
+                set[depth] = card;
+                indices[depth] = position[card];
+                if (depth == config.featureSize - 1) return sink.accept(set);
+                return extend(depth + 1, 0, 0, set, indices, seen);
+            }
+            long previous = seen[depth - 1][feature];
+            // a feature agreed on by the prefix keeps its value, otherwise it must take a new one
+            long allowed = Long.bitCount(previous) == 1 ? previous : ~previous;
+            for (int value = 0; value < config.featureSize; ++value) {
+                if ((allowed & 1L << value) == 0) continue;
+                seen[depth][feature] = previous | 1L << value;
+                if (!extend(depth, feature + 1, card + value * codec.weight(feature), set, indices, seen))
+                    return false;
+            }
+            return true;
+        }
+
+        private void searchByCombinations() {
+            int n = cards.length;
+            int r = config.featureSize;
+            if (from + r > n) return;
+            int[] combination = new int[r];
+            int[] set = new int[r];
+
+            for (int i = 0; i < r; ++i)
+                combination[i] = from + i;
+
+            while (combination[0] < to && !sink.done()) {
+                for (int i = 0; i < r; ++i)
+                    set[i] = cards[combination[i]];
+                if (testSet(set) && !sink.accept(set)) return;
+
+                // generate next combination in lexicographic order
+                int t = r - 1;
+                while (t != 0 && combination[t] == n - r + t) --t;
+                combination[t]++;
+                for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+                if (combination[r - 1] >= n) return;
+            }
         }
-        return sets;
     }
 
     public void spin() {
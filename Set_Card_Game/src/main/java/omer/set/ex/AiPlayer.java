@@ -2,6 +2,8 @@ package omer.set.ex;
 
 import omer.set.Env;
 
+import java.util.concurrent.locks.LockSupport;
+
 
 public class AiPlayer extends Player{
     public AiPlayer(Env env, Dealer dealer, Table table, int id){
@@ -15,16 +17,30 @@ public class AiPlayer extends Player{
 
         while (!terminate) {
             if (state == gameState.WAITING){
-                    try { synchronized (this) {this.wait();}}
+                    //waiting for the dealer to resume the play (see Dealer::notifyPlayers)
+                    try { synchronized (this) {while (state == gameState.WAITING && !terminate) this.wait();}}
                     catch (InterruptedException Ignored ){}
                 }
             else{
                 //synchronization with dealer before generating a move so moves won't be done between rounds
                 //(dealer has access to the shared resource-"Input" while he is restarting a round.)
                 synchronized (this) {
-                    if(state==gameState.PLAYING) {
-                        Input = (int) (Math.random() * env.config.tableSize);//next action
-                        executeAction();
+                    if(state==gameState.PLAYING && table.countTokens(id) < env.config.featureSize) {
+                        Input = env.config.smartAi ? nextSmartSlot() : (int) (Math.random() * env.config.tableSize);//next action
+                        //empty slots are skipped by a look at the latest snapshot of the table, without locking
+                        if (table.snapshot().card(Input) != Table.EMPTY)
+                            executeAction();
+                    }
+                }
+                //claim a set (outside of the synchronization, the player waits for the dealer's response), unless the
+                //claim is not admitted -> keep the tokens and back off before trying again
+                if (state == gameState.PLAYING && table.countTokens(id) == env.config.featureSize) {
+                    long backOff = admitClaim();
+                    if (backOff > 0) {
+                        LockSupport.parkNanos(this, backOff);
+                    } else {
+                        state = gameState.WAITING;
+                        CheckMySet();
                     }
                 }
             }
@@ -34,6 +50,70 @@ public class AiPlayer extends Player{
         System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
     }
 
+    /**
+     * Picks the next slot to toggle on the way to a set, using the analysis of the table shared by all the computer
+     * players (see Table::analysis): the first token goes on the slot that is part of most sets (a random one of them
+     * on a tie), so the player has the most sets to go on with; then the player aims at the set that has most of its
+     * tokens (a random one of them on a tie), removes its tokens outside of that set and places tokens on the rest of
+     * it.
+     *
+     * @return - the slot, or a random slot if there is no set on the table.
+     */
+    private int nextSmartSlot() {
+        TableAnalysis analysis = table.analysis();
+        int setSize = env.config.featureSize;
+        if (analysis.setCount() == 0) return (int) (Math.random() * env.config.tableSize);
+
+        if (table.countTokens(id) == 0) {
+            int best = 0, ties = 0;
+            for (int slot = 0; slot < env.config.tableSize; slot++) {
+                if (analysis.usefulness(slot) > analysis.usefulness(best)) {
+                    best = slot;
+                    ties = 1;
+                } else if (analysis.usefulness(slot) == analysis.usefulness(best) && Math.random() * ++ties < 1) {
+                    best = slot;
+                }
+            }
+            return best;
+        }
+
+        //two tokens and the slot that completes them is on the table -> straight to it
+        if (table.countTokens(id) == 2) {
+            int first = Table.EMPTY, second = Table.EMPTY;
+            for (int slot = 0; slot < env.config.tableSize && second == Table.EMPTY; slot++)
+                if (table.hasToken(id, slot)) {
+                    if (first == Table.EMPTY) first = slot;
+                    else second = slot;
+                }
+            if (second != Table.EMPTY && analysis.completingSlot(first, second) != Table.EMPTY)
+                return analysis.completingSlot(first, second);
+        }
+
+        int target = 0, targetTokens = -1, ties = 0;
+        for (int set = 0; set < analysis.setCount(); set++) {
+            int tokens = 0;
+            for (int i = 0; i < setSize; i++)
+                if (table.hasToken(id, analysis.slot(set, i))) tokens++;
+            if (tokens > targetTokens) {
+                target = set;
+                targetTokens = tokens;
+                ties = 1;
+            } else if (tokens == targetTokens && Math.random() * ++ties < 1) {
+                target = set;
+            }
+        }
+        for (int slot = 0; slot < env.config.tableSize; slot++) {
+            if (!table.hasToken(id, slot)) continue;
+            boolean inTarget = false;
+            for (int i = 0; i < setSize; i++)
+                inTarget |= analysis.slot(target, i) == slot;
+            if (!inTarget) return slot;
+        }
+        for (int i = 0; i < setSize; i++)
+            if (!table.hasToken(id, analysis.slot(target, i))) return analysis.slot(target, i);
+        return analysis.slot(target, 0);
+    }
+
     //Function Not in use for Ai Player because he generates key presses and process them without the use of the Input manager thread
     @Override
     public void keyPressed(int slot) {
@@ -43,26 +123,10 @@ public class AiPlayer extends Player{
      * This method places or removes a token according to the keyInput.
      */
     public void executeAction() {
-        table.rwLock.readLock().lock();
-        // if no card is on the chosen slot->Ignore.
-        if (table.slotToCard[Input] != null  ) {
-            //place a token on the chosen slot or remove the existing token:
-            if (table.tokens[id][Input] == false) {
-                table.placeToken(id, Input);
-            } else if (table.tokens[id][Input] == true) {
-                table.removeToken(id, Input);
-            }
-        }
-        table.rwLock.readLock().unlock();
-
-        if (TokensPlaced == 3) {    //claim a set
-            state = gameState.WAITING;
-            CheckMySet();
-            if (dealer.EndOfRound == true)
-                state = gameState.WAITING;
-            else
-                state = gameState.PLAYING;
-        }
+        //place a token on the chosen slot or remove the existing token, without locking (see Table::placeToken).
+        //if no card is on the chosen slot->Ignore.
+        if (!table.removeToken(id, Input))
+            table.placeToken(id, Input);
     }
 
 
@@ -0,0 +1,101 @@
+package omer.set.ex;
+
+import java.util.Arrays;
+
+/**
+ * A map from the cards on the table to their slots: a flat array, or a hash table sized by the slots for large decks.
+ * Not thread safe - the dealer thread is its only user.
+ */
+class CardSlotMap {
+
+    /**
+     * The largest deck that is mapped by a flat array.
+     */
+    static final int MAX_DENSE_DECK = 1 << 16;
+
+    /**
+     * The slot of each card (Table.EMPTY if none), or null for a sparse map.
+     */
+    private final int[] dense;
+
+    /**
+     * The cards (Table.EMPTY for a free entry) and their slots, for a sparse map (null otherwise).
+     */
+    private final int[] keys;
+    private final int[] values;
+    private final int shift;
+
+    CardSlotMap(int deckSize, int slots) {
+        if (deckSize <= MAX_DENSE_DECK) {
+            dense = new int[deckSize];
+            Arrays.fill(dense, Table.EMPTY);
+            keys = values = null;
+            shift = 0;
+        } else {
+            //a load factor of at most 1/2, so probe sequences stay short
+            int capacity = Integer.highestOneBit(Math.max(2, slots) * 2 - 1) << 1;
+            dense = null;
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, Table.EMPTY);
+            shift = Integer.SIZE - Integer.numberOfTrailingZeros(capacity);
+        }
+    }
+
+    private int home(int card) {
+        return (card * 0x9E3779B9) >>> shift;
+    }
+
+    private int indexOf(int card) {
+        int mask = keys.length - 1;
+        for (int i = home(card); ; i = (i + 1) & mask)
+            if (keys[i] == card || keys[i] == Table.EMPTY) return i;
+    }
+
+    /**
+     * @param card - the card id.
+     * @return - the slot of the card, or Table.EMPTY if it is not on the table.
+     */
+    int get(int card) {
+        if (dense != null) return dense[card];
+        int i = indexOf(card);
+        return keys[i] == card ? values[i] : Table.EMPTY;
+    }
+
+    /**
+     * @param card - the card id.
+     * @param slot - the slot of the card.
+     */
+    void put(int card, int slot) {
+        if (dense != null) {
+            dense[card] = slot;
+            return;
+        }
+        int i = indexOf(card);
+        keys[i] = card;
+        values[i] = slot;
+    }
+
+    /**
+     * @param card - the card id (may not be in the map).
+     */
+    void remove(int card) {
+        if (dense != null) {
+            dense[card] = Table.EMPTY;
+            return;
+        }
+        int mask = keys.length - 1;
+        int free = indexOf(card);
+        if (keys[free] != card) return;
+        //backward shift deletion: moves back the entries of the probe sequence that would not be found otherwise
+        for (int i = (free + 1) & mask; keys[i] != Table.EMPTY; i = (i + 1) & mask) {
+            int home = home(keys[i]);
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        keys[free] = Table.EMPTY;
+    }
+}
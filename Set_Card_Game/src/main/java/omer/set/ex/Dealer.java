@@ -1,14 +1,19 @@
 package omer.set.ex;
 
+import omer.set.Config;
 import omer.set.Env;
 
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
 
 
 
@@ -33,9 +38,44 @@ public class Dealer implements Runnable {
     private final Player[] players;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The card ids that are left in the dealer's deck.
      */
-    private final List<Integer> deck;
+    private final Deck deck;
+
+    /**
+     * A live index of the legal sets among the cards still in play (the deck and the table together).
+     * Cards leave it only when they are collected as part of a legal set.
+     */
+    private final SetIndex remainingSets;
+
+    /**
+     * The number of shuffles tried when preparing a deal, before a set is planted among the cards to be dealt.
+     */
+    private static final int DEAL_SHUFFLE_ATTEMPTS = 100;
+
+    /**
+     * Prepares the deck order of the next round in the background, while the dealer is idle.
+     */
+    private final ExecutorService dealPreparer;
+
+    /**
+     * The deck order prepared for the next round (null if none was requested yet).
+     */
+    private CompletableFuture<int[]> nextDeal;
+
+    /**
+     * The number of cards in play when nextDeal was requested. Cards only leave the game, so the prepared order is
+     * a permutation of the cards in play as long as their number did not change.
+     */
+    private int nextDealCards = -1;
+
+    /**
+     * The number of times the cards on the table contained no legal set, how many of them were fixed by dealing extra
+     * cards, and the round time saved by ending the others right away instead of waiting for the round to time out.
+     */
+    private int deadTables;
+    private int expandedTables;
+    private long deadTimeSavedMillis;
 
     /**
      * True iff game should be terminated.
@@ -49,12 +89,31 @@ public class Dealer implements Runnable {
     protected volatile boolean EndOfRound;
 
     /**
-     * A queue of players that waits for their set to be checked by the dealer.
-     * Used by players and dealer:
-     * safety is maintained using Java's concurrent Blocking queue.
+     * The events posted to the dealer: the players' claims, round timeouts and termination.
      * fairness is maintained between all player's threads in insertion(first one to call a set will be noticed by the dealer first)
      */
-    protected ArrayBlockingQueue<Player> requests;
+    protected final DealerMailbox mailbox;
+
+    /**
+     * The number of the current round, as given by the timer.
+     */
+    private long round;
+
+    /**
+     * The claims adjudicated together by SetTesting, and the slots of the sets won in the current batch.
+     */
+    private final List<DealerEvent> claimBatch = new ArrayList<>();
+    private final boolean[] wonSlots;
+
+    /**
+     * The slots of the claim being checked (see findTheSet).
+     */
+    private final int[] claimedSlots;
+
+    /**
+     * Cancels the pending claim of a player whose token was removed with a won set (see removeSetFromTable).
+     */
+    private final IntConsumer cancelClaim;
 
     /**
      * @param dealerThread the main thread running the dealer loop
@@ -71,8 +130,19 @@ public class Dealer implements Runnable {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
-        requests = new ArrayBlockingQueue<>(4, true);
+        deck = new Deck(env.config.deckSize, new Random());
+        mailbox = new DealerMailbox();
+        wonSlots = new boolean[env.config.tableSize];
+        claimedSlots = new int[env.config.featureSize];
+        cancelClaim = player -> mailbox.cancelClaim(players[player]);
+        remainingSets = new SetIndex(env);
+        for (int card : deck.cards())
+            remainingSets.add(card);
+        dealPreparer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "deal-preparer");
+            thread.setDaemon(true);
+            return thread;
+        });
 
     }
 
@@ -85,22 +155,29 @@ public class Dealer implements Runnable {
         dealerThread = Thread.currentThread();
 
         initializeGameThreads();
+        prepareNextDeal();
 
         //main loop of the Dealer:
         while (!shouldFinish()) {
 
             //End of round - stop players from playing,clear the table and reset some data:
             notifyPlayers(Player.gameState.WAITING);
-            table.rwLock.writeLock().lock();        //locking while reaching the shared data of the table
-            requests.clear();
+            table.lockTable();        //locking while reaching the shared data of the table (no dealing delays inside, see Table::placeCards)
+            claimBatch.clear();
+            mailbox.drainClaims(claimBatch);
+            for (DealerEvent claim : claimBatch)
+                claim.player.respond(Player.gameState.WAITING);
             removeAllCardsFromTable();
 
-            //Prepare new round - shuffle the deck, place cards, start the timer and resume the players:
-            Collections.shuffle(deck);
-            placeCardsOnTable();
-            table.rwLock.writeLock().unlock(); //unlocking the shared data of the table
-            EndOfRound = false;
-            timer.timerThread.interrupt();
+            //Prepare new round - swap in the prepared deck order (or shuffle), place cards, start the timer and resume the players:
+            timer.restart();
+            if (!swapInNextDeal())
+                deck.shuffle();
+            boolean dead = placeCardsOnTable();    //the new round ends right away if it has no set to play (see handleDeadTable)
+            table.unlockTable(); //unlocking the shared data of the table
+            round = timer.startRound();
+            //cleared only once the cards are dealt, so a player resumed by a claim's response keeps waiting meanwhile
+            EndOfRound = dead;
             notifyPlayers(Player.gameState.PLAYING);
 
             //dealers inner loop:
@@ -112,6 +189,15 @@ public class Dealer implements Runnable {
             terminate();
             announceWinners();
         }
+        env.logger.info("dead tables: " + deadTables + ", expanded: " + expandedTables + ", dead time saved: " + deadTimeSavedMillis + " ms");
+        env.logger.info(mailbox.claimStats());
+        long rateLimited = 0, depthLimited = 0;
+        for (Player player : players) {
+            rateLimited += player.rateLimitedClaims();
+            depthLimited += player.depthLimitedClaims();
+        }
+        env.logger.info("claims held back: " + rateLimited + " by rate, " + depthLimited + " by queue depth");
+        env.logger.info("table analysis cache: " + table.analysisHits() + " hits, " + table.analysisMisses() + " misses");
         System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
     }
 
@@ -142,15 +228,90 @@ public class Dealer implements Runnable {
      */
     private void RoundLoop() {
         while (!terminate && !EndOfRound) {
-
-            //test all the sets that were submitted so far by the players:
-            while (!requests.isEmpty() && !EndOfRound && !terminate) {
-                SetTesting();
-            }
+            //handle the events posted so far, or use the idle time to prepare the deal of the next round and then
             //wait until A set is submitted by a player or TimeOut or Termination of the game:
-            try {synchronized (this) { this.wait(); }
-            } catch (InterruptedException dealerNotified) {}
+            DealerEvent event = mailbox.poll();
+            if (event == null) {
+                if (nextDealCards != remainingSets.size())
+                    prepareNextDeal();
+                event = mailbox.take();
+            }
+            handleEvent(event);
+        }
+    }
+
+    /**
+     * Handles an event taken from the mailbox.
+     *
+     * @param event - the event.
+     */
+    private void handleEvent(DealerEvent event) {
+        switch (event.type) {
+            case CLAIM_SUBMITTED:
+                SetTesting(event);
+                break;
+            case ROUND_TIMEOUT:
+                //timeouts of rounds that already ended are ignored
+                if (event.round == round)
+                    EndOfRound = true;
+                break;
+            case TERMINATE:
+                break;  //terminate is already set
+        }
+    }
+
+    /**
+     * Starts preparing the deck order of the next round in the background, from the cards currently in play.
+     */
+    private void prepareNextDeal() {
+        if (nextDeal != null) nextDeal.cancel(false);
+        int[] cards = remainingSets.cards();
+        nextDealCards = cards.length;
+        nextDeal = CompletableFuture.supplyAsync(() -> prepareDeal(cards), dealPreparer);
+    }
+
+    /**
+     * Shuffles the cards so that the first boardSize of them contain a legal set (if the cards contain one at all).
+     * Tries a few random shuffles first, and if none of them deals a set, moves a set found among all the cards to
+     * the front and shuffles it into the dealt part.
+     *
+     * @param cards - the cards in play.
+     * @return - the shuffled cards.
+     */
+    private int[] prepareDeal(int[] cards) {
+        int dealt = Math.min(env.config.boardSize, cards.length);
+        for (int attempt = 0; attempt < DEAL_SHUFFLE_ATTEMPTS; attempt++) {
+            Deck.shuffle(cards, 0, cards.length, ThreadLocalRandom.current());
+            if (env.util.anySet(Arrays.copyOf(cards, dealt))) return cards;
+        }
+        List<int[]> sets = env.util.findSets(cards.clone(), 1);
+        if (!sets.isEmpty()) {
+            int[] set = sets.get(0);
+            for (int i = 0; i < set.length; i++)
+                for (int j = i; j < cards.length; j++)
+                    if (cards[j] == set[i]) {
+                        cards[j] = cards[i];
+                        cards[i] = set[i];
+                        break;
+                    }
+            Deck.shuffle(cards, 0, dealt, ThreadLocalRandom.current());
         }
+        return cards;
+    }
+
+    /**
+     * Replaces the deck with the deck order prepared for this round, if it is ready and still matches the cards in
+     * play. Called at the beginning of a round, after all the cards were returned to the deck.
+     *
+     * @return - true iff the prepared deck order was used.
+     */
+    private boolean swapInNextDeal() {
+        int[] order = nextDeal == null ? null : nextDeal.getNow(null);
+        if (order == null || nextDealCards != remainingSets.size() || order.length != deck.size()) return false;
+        deck.setOrder(order);
+        nextDeal = null;
+        nextDealCards = -1;
+        return true;
     }
 
     /**
@@ -165,57 +326,96 @@ public class Dealer implements Runnable {
             synchronized (player) {
                 player.state = state;
                 player.InputQueue.clear();    //restarting player's entities
-                player.Input = null;
-                players[i].playerThread.interrupt();
+                player.Input = Table.EMPTY;
+                player.notifyAll();
             }
         }
     }
 
     /**
-     * Tests a set that was claimed by one of the players
+     * Tests in one batch all the sets claimed by the players so far, and responds to the players.
+     * The claims are checked in their arrival order against the table as it was when the batch started: a legal set
+     * that shares a card with a set won earlier in the batch is dropped, as if that card was taken first. Then the
+     * cards of all the won sets are replaced together, under a single lock of their slots.
+     *
+     * @param first - the claim taken from the mailbox (the other pending claims are drained with it).
      */
-    public void SetTesting() {
-        Player player = requests.poll();
-
-        int[][] slotsAndCards = findTheSet(player);
-
-        //checking if the set is valid:
-        Boolean isSet = env.util.testSet(slotsAndCards[1]);
-
-        //Lock for the access of the shared data of the table
-        table.rwLock.writeLock().lock();
-
-        //If the set is valid->reward the player and replace the cards:
-        if (isSet) {
-            player.state = Player.gameState.POINT;
-            removeSetFromTable(slotsAndCards[0]);
+    public void SetTesting(DealerEvent first) {
+        claimBatch.clear();
+        claimBatch.add(first);
+        mailbox.drainClaims(claimBatch);
+        int setSize = env.config.featureSize;
+        int won = 0;
+
+        //an indexed loop, without an iterator
+        for (int c = 0; c < claimBatch.size(); c++) {
+            DealerEvent claim = claimBatch.get(c);
+            Player player = claim.player;
+            //a claim posted while the previous round was reset refers to tokens that are gone
+            if (table.countTokens(player.id) != setSize) {
+                player.respond(Player.gameState.PLAYING);
+                continue;
+            }
+            int[] claimed = findTheSet(player);
+
+            //If a card of the set was taken by an earlier claim-> resume the player (his tokens go with the card):
+            boolean taken = false;
+            for (int slot : claimed)
+                taken |= wonSlots[slot];
+            if (taken) {
+                player.respond(Player.gameState.PLAYING);
+                continue;
+            }
+            //If the set is not valid-> penalize the player and remove his tokens (tokens need no lock)
+            //(the verdict was prepared by the player's thread as the tokens were placed):
+            if (!table.claimVerdict(player.id)) {
+                for (int slot : claimed) {
+                    table.removeToken(player.id, slot);
+                }
+                mailbox.recordResponse(claim);
+                player.respond(Player.gameState.PENALTY);
+                continue;
+            }
+            //If the set is valid->keep it for the replacement of the cards:
+            for (int slot : claimed)
+                wonSlots[slot] = true;
+            claimBatch.set(won++, claim);
         }
-        //If the set is not valid-> penalize the player and remove his tokens:
-        else {
-            player.state = Player.gameState.PENALTY;
-            for (int slot : slotsAndCards[0]) {
-                table.removeToken(player.id, slot);
+        if (won == 0) return;
+
+        //replace the cards of all the won sets (locking only their slots when the locking is striped, so the other
+        //slots stay in play) and reward the players:
+        int[] slots = new int[won * setSize];
+        int[] cards = new int[slots.length];
+        for (int slot = 0, i = 0; slot < wonSlots.length; slot++)
+            if (wonSlots[slot]) {
+                wonSlots[slot] = false;
+                slots[i] = slot;
+                cards[i++] = table.cardAt(slot);
             }
+        table.lockSlots(slots);
+        try {
+            removeSetFromTable(slots);
+        } finally {
+            table.unlockSlots(slots);
+        }
+        for (int card : cards)
+            remainingSets.remove(card);
+        for (int i = 0; i < won; i++) {
+            mailbox.recordResponse(claimBatch.get(i));
+            claimBatch.get(i).player.respond(Player.gameState.POINT);
         }
-        table.rwLock.writeLock().unlock();
-        player.playerThread.interrupt();
     }
 
     /**
-     * returns the slots and cards of the player's set pending for testing
+     * returns the slots of the player's set pending for testing
+     * (in a buffer of the dealer, which is overwritten by the next call)
      */
-    public int[][] findTheSet(Player player) {
-        int[][] ans = new int[2][3];
-        int counter = 0;
+    public int[] findTheSet(Player player) {
         //No lock is needed for the shared data because the Dealer is the only writer
-        for (int slot = 0; slot < env.config.tableSize && counter < 3; slot++) {
-            if (table.tokens[player.id][slot] == true) {
-                ans[0][counter] = slot;
-                ans[1][counter] = table.slotToCard[slot];
-                counter++;
-            }
-        }
-        return ans;
+        //The table keeps each player's tokens as a bitmask, so there is no need to scan the whole table
+        table.claimedSlots(player.id, claimedSlots);
+        return claimedSlots;
     }
 
     /**
@@ -233,8 +433,9 @@ public class Dealer implements Runnable {
         timer.terminate();
 
         //terminate dealer thread
+        dealPreparer.shutdownNow();
         terminate = true;
-        dealerThread.interrupt();
+        mailbox.post(new DealerEvent(DealerEvent.Type.TERMINATE, null, 0));
     }
 
     /**
@@ -243,53 +444,103 @@ public class Dealer implements Runnable {
      * @return true iff the game should be finished.
      */
     private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0;
+        return terminate || !remainingSets.hasSet();
     }
 
     /**
      * Removing all player's tokens from the specific slots & replacing the cards in those slots.
      */
     private void removeSetFromTable(int[] slots) {
-        for (int slot : slots) {
-            for (Player player : players) {
-                if (table.tokens[player.id][slot] == true) {
-                    table.removeToken(player.id, slot);
-                    requests.remove(player);
-                    //if a token of another player who waits for his set to be checked was removed -> resume his play:
-                    if (player.state == Player.gameState.WAITING) {
-                        player.state = Player.gameState.PLAYING;
-                        player.playerThread.interrupt();
-                    }
-                }
-            }
-            table.removeCard(slot);
-        }
-        placeCardsOnTable();
+        //if a token of another player who waits for his set to be checked was removed -> resume his play
+        //(the player is told when the dealer reaches the cancelled claim in the mailbox):
+        for (int slot : slots)
+            table.removeTokens(slot, cancelClaim);
+        table.removeCards(slots);
+        if (placeCardsOnTable())
+            EndOfRound = true;
     }
 
     /**
      * Check if any cards can be removed from the deck and placed on the table.
+     *
+     * @return true iff the table is left without a set and the round should end (see handleDeadTable).
      */
-    private void placeCardsOnTable() {
-        for (int slot =0 ; slot < env.config.tableSize && !deck.isEmpty() && !terminate ; slot++){
-            if (table.slotToCard[slot] == null)
-                table.placeCard(deck.remove(0) , slot);
+    private boolean placeCardsOnTable() {
+        //the overflow slots (if any) are the last ones, and are only filled by handleDeadTable
+        int[] slots = new int[env.config.boardSize], cards = new int[env.config.boardSize];
+        int count = 0;
+        for (int slot = 0; slot < env.config.tableSize && table.countCards() + count < env.config.boardSize
+                && !deck.isEmpty() && !terminate; slot++) {
+            if (table.cardAt(slot) == Table.EMPTY) {
+                slots[count] = slot;
+                cards[count++] = deck.draw();
+            }
         }
+        //all the cards are placed together, with a single ui update
+        table.placeCards(Arrays.copyOf(cards, count), Arrays.copyOf(slots, count));
+        boolean dead = handleDeadTable();
         //Giving a hint for the players if necessary
         if (env.config.hints == true && !terminate) table.hints();
+        return dead;
+    }
+
+    /**
+     * Detects a table without any legal set right after cards were placed on it, instead of letting the players idle
+     * until the round times out. Depending on the configuration, deals extra cards into the overflow slots as in the
+     * physical game, or ends the round right away so the next round reshuffles the deck.
+     *
+     * @return true iff the round should end.
+     */
+    private boolean handleDeadTable() {
+        if (terminate || env.config.deadTableAction == Config.DeadTableAction.NONE || table.hasSet()) return false;
+
+        if (env.config.deadTableAction == Config.DeadTableAction.EXPAND)
+            while (!table.hasSet() && placeExtraCards());
+        deadTables++;
+        if (table.hasSet()) {
+            //the round goes on, so no time was saved
+            expandedTables++;
+            env.logger.info("dead table: dealt extra cards (" + table.countCards() + " cards on the table)");
+            return false;
+        }
+        long saved = timer.timeLeft();
+        deadTimeSavedMillis += saved;
+        env.logger.info("dead table: reshuffling, saved " + saved + " ms");
+        return true;
+    }
+
+    /**
+     * Places up to a set's worth of cards from the deck in the empty slots of the table (including overflow slots).
+     *
+     * @return true iff any card was placed.
+     */
+    private boolean placeExtraCards() {
+        int placed = 0;
+        for (int slot = 0; slot < env.config.tableSize && placed < env.config.featureSize
+                && !deck.isEmpty() && !terminate; slot++) {
+            if (table.cardAt(slot) == Table.EMPTY) {
+                table.placeCard(deck.draw(), slot);
+                placed++;
+            }
+        }
+        return placed > 0;
     }
 
     /**
      * Returns all the cards from the table to the deck.
      */
     private void removeAllCardsFromTable() {
-        for (Integer slot=0 ; slot < env.config.tableSize && !terminate ; slot++){
-            Integer card = table.slotToCard[slot];
-            if (card != null) {
-                table.removeCard(slot);
-                deck.add(card);
+        int[] slots = new int[env.config.tableSize];
+        int count = 0;
+        for (int slot = 0; slot < env.config.tableSize; slot++) {
+            int card = table.cardAt(slot);
+            if (card != Table.EMPTY) {
+                slots[count++] = slot;
+                deck.putBack(card);
             }
         }
+        //all the cards are removed together, with a single ui update
+        table.removeCards(Arrays.copyOf(slots, count));
     }
 
     /**
@@ -0,0 +1,57 @@
+package omer.set.ex;
+
+/**
+ * An event posted to the dealer's mailbox by the players, the timer or the game's shutdown.
+ * Every player owns a single claim event, which it reposts for each of its claims (a player has at most one claim
+ * pending at any time).
+ */
+public class DealerEvent {
+
+    /**
+     * The kinds of events the dealer handles.
+     */
+    public enum Type {
+        CLAIM_SUBMITTED,    //a player asks the dealer to check the set it marked
+        ROUND_TIMEOUT,      //the countdown of a round ran out
+        TERMINATE           //the game should be terminated
+    }
+
+    public final Type type;
+
+    /**
+     * The claiming player (CLAIM_SUBMITTED only).
+     */
+    public final Player player;
+
+    /**
+     * The round that timed out (ROUND_TIMEOUT only).
+     * Timeouts of earlier rounds may still be in the mailbox after the dealer started a new round, and are ignored.
+     */
+    public final long round;
+
+    /**
+     * The System.nanoTime() at which the event was posted, for measuring the latency of claim handling.
+     */
+    protected long postedNanos;
+
+    /**
+     * The next event in the mailbox queue (see DealerMailbox).
+     */
+    protected volatile DealerEvent next;
+
+    /**
+     * True while the event is in the mailbox queue.
+     */
+    protected volatile boolean pending;
+
+    /**
+     * True iff the claim was cancelled while in the queue (dealer thread only).
+     */
+    protected boolean cancelled;
+
+    public DealerEvent(Type type, Player player, long round) {
+        this.type = type;
+        this.player = player;
+        this.round = round;
+    }
+}
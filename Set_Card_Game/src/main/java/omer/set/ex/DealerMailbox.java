@@ -0,0 +1,196 @@
+package omer.set.ex;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The dealer's mailbox: a lock free queue of the events posted by the players, the timer and the game's shutdown
+ * (Vyukov's intrusive MPSC queue), handled by the dealer thread in the order they were posted.
+ * Also keeps the claim handling statistics and the number of pending claims.
+ */
+public class DealerMailbox {
+
+    /**
+     * The placeholder node that keeps the queue non-empty.
+     */
+    private final DealerEvent stub = new DealerEvent(DealerEvent.Type.TERMINATE, null, 0);
+
+    /**
+     * The last event posted (producers) and the oldest node of the queue (dealer thread only).
+     */
+    private final AtomicReference<DealerEvent> tail = new AtomicReference<>(stub);
+    private DealerEvent head = stub;
+
+    /**
+     * Events taken out of the queue by drainClaims that were not claims, to be handed out first (dealer thread only).
+     */
+    private final ArrayDeque<DealerEvent> deferred = new ArrayDeque<>();
+
+    /**
+     * The number of claims in the queue (including cancelled ones), and the largest number the dealer found there.
+     */
+    private final AtomicInteger pendingClaims = new AtomicInteger();
+    private int maxPendingClaims;
+
+    /**
+     * The dealer thread while it is parked waiting for an event (null otherwise).
+     */
+    private volatile Thread waiting;
+
+    /**
+     * Claim handling statistics (dealer thread only).
+     * latencyHistogram[i] counts the claims answered within [2^(i-1), 2^i) nanoseconds.
+     */
+    private final long[] latencyHistogram = new long[Long.SIZE];
+    private long claims;
+    private long maxLatencyNanos;
+    private long firstClaimNanos;
+    private long lastResponseNanos;
+
+    /**
+     * Posts an event and wakes the dealer if it is waiting.
+     *
+     * @param event - the event (must not be in the mailbox already).
+     */
+    public void post(DealerEvent event) {
+        event.postedNanos = System.nanoTime();
+        event.pending = true;
+        if (event.type == DealerEvent.Type.CLAIM_SUBMITTED) pendingClaims.incrementAndGet();
+        push(event);
+        Thread dealer = waiting;
+        if (dealer != null) LockSupport.unpark(dealer);
+    }
+
+    private void push(DealerEvent event) {
+        event.next = null;
+        tail.getAndSet(event).next = event;
+    }
+
+    /**
+     * Takes the oldest node out of the queue (dealer thread only).
+     *
+     * @return - the node, or null if the queue is empty (or a post is half way through).
+     */
+    private DealerEvent pop() {
+        DealerEvent first = head, next = first.next;
+        if (first == stub) {
+            if (next == null) return null;
+            head = first = next;
+            next = next.next;
+        }
+        if (next == null) {
+            if (first != tail.get()) return null;
+            push(stub);
+            next = first.next;
+            if (next == null) return null;
+        }
+        head = next;
+        first.pending = false;
+        if (first.type == DealerEvent.Type.CLAIM_SUBMITTED)
+            maxPendingClaims = Math.max(maxPendingClaims, pendingClaims.getAndDecrement());
+        return first;
+    }
+
+    /**
+     * @return - the oldest event, or null if there is none. Cancelled claims are answered (see cancelClaim) and
+     * skipped.
+     */
+    public DealerEvent poll() {
+        if (!deferred.isEmpty()) return deferred.poll();
+        DealerEvent event;
+        while ((event = pop()) != null && event.cancelled) {
+            event.cancelled = false;
+            event.player.respond(Player.gameState.PLAYING);
+        }
+        return event;
+    }
+
+    /**
+     * Takes the oldest event, waiting until one is posted.
+     *
+     * @return - the event.
+     */
+    public DealerEvent take() {
+        DealerEvent event;
+        while ((event = poll()) == null) {
+            waiting = Thread.currentThread();
+            //checking again after announcing the wait, as a post may have come in meanwhile
+            if ((event = poll()) == null)
+                LockSupport.park(this);
+            waiting = null;
+            if (event != null) break;
+        }
+        return event;
+    }
+
+    /**
+     * @return - the number of claims waiting for the dealer (any thread).
+     */
+    public int pendingClaims() {
+        return pendingClaims.get();
+    }
+
+    /**
+     * Cancels the pending claim of a player (if it was not taken by the dealer yet) in O(1). The claim stays in the
+     * queue until the dealer reaches it, and then the player is told to resume playing.
+     *
+     * @param player - the player.
+     * @return - true iff the player had a pending claim.
+     */
+    public boolean cancelClaim(Player player) {
+        if (!player.claim.pending) return false;
+        player.claim.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Takes all the pending claims out of the mailbox, in the order they were posted (other events are kept).
+     *
+     * @param claims - the list to add the claims to.
+     */
+    public void drainClaims(List<DealerEvent> claims) {
+        for (DealerEvent event; (event = poll()) != null; ) {
+            if (event.type == DealerEvent.Type.CLAIM_SUBMITTED) claims.add(event);
+            else deferred.add(event);
+        }
+    }
+
+    /**
+     * Records that the dealer responded to a claim it took from the mailbox.
+     *
+     * @param claim - the claim.
+     */
+    public void recordResponse(DealerEvent claim) {
+        long now = System.nanoTime();
+        long latency = Math.max(0, now - claim.postedNanos);
+        if (claims++ == 0) firstClaimNanos = claim.postedNanos;
+        lastResponseNanos = now;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        latencyHistogram[Long.SIZE - Long.numberOfLeadingZeros(latency)]++;
+    }
+
+    /**
+     * @return - a one line summary of the claims handled: their number, the throughput, the latency percentiles
+     * (as upper bounds of power of two buckets, no larger than the largest latency) and the largest queue depth.
+     */
+    public String claimStats() {
+        double seconds = (lastResponseNanos - firstClaimNanos) / 1e9;
+        return String.format("%d claims handled, %.1f claims/s, latency p50 <= %d us, p99 <= %d us, max %d us, max queue depth %d",
+                claims, seconds > 0 ? claims / seconds : 0, percentileMicros(0.5), percentileMicros(0.99),
+                TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos), maxPendingClaims);
+    }
+
+    private long percentileMicros(double fraction) {
+        long rank = (long) Math.ceil(claims * fraction), seen = 0;
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            seen += latencyHistogram[i];
+            if (seen >= rank && seen > 0)
+                return TimeUnit.NANOSECONDS.toMicros(Math.min(maxLatencyNanos, i == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i));
+        }
+        return 0;
+    }
+}
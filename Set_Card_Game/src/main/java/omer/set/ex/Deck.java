@@ -0,0 +1,112 @@
+package omer.set.ex;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The dealer's deck of cards: a primitive array whose first size entries are the cards in the deck, with the top of
+ * the deck at the end. Drawing and returning a card only move the cursor (size), and shuffling is an in-place
+ * Fisher-Yates with the deck's own random generator.
+ * Not thread safe - the dealer thread is its only user.
+ */
+public class Deck {
+
+    /**
+     * The cards in the deck at positions 0 to size - 1, the next card to draw at position size - 1.
+     */
+    private final int[] cards;
+
+    /**
+     * The number of cards in the deck (the draw cursor).
+     */
+    private int size;
+
+    /**
+     * The random generator used for shuffling.
+     */
+    private final Random random;
+
+    /**
+     * Creates a full deck of the cards 0 to deckSize - 1.
+     *
+     * @param deckSize - the number of cards.
+     * @param random   - the random generator used for shuffling.
+     */
+    public Deck(int deckSize, Random random) {
+        cards = new int[deckSize];
+        Arrays.setAll(cards, card -> card);
+        size = deckSize;
+        this.random = random;
+    }
+
+    /**
+     * Draws the top card of the deck in O(1).
+     *
+     * @return - the card id.
+     * @pre - !isEmpty()
+     */
+    public int draw() {
+        return cards[--size];
+    }
+
+    /**
+     * Returns a card to the top of the deck in O(1).
+     *
+     * @param card - the card id.
+     * @pre - the card is not in the deck.
+     */
+    public void putBack(int card) {
+        cards[size++] = card;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Shuffles the cards in the deck in place.
+     */
+    public void shuffle() {
+        shuffle(cards, 0, size, random);
+    }
+
+    /**
+     * Replaces the cards in the deck, to be drawn in the given order.
+     *
+     * @param order - the cards, order[0] to be drawn first.
+     * @pre - order.length <= the number of cards the deck was created with.
+     */
+    public void setOrder(int[] order) {
+        size = order.length;
+        for (int i = 0; i < size; i++)
+            cards[size - 1 - i] = order[i];
+    }
+
+    /**
+     * @return - a copy of the cards in the deck (in no particular order).
+     */
+    public int[] cards() {
+        return Arrays.copyOf(cards, size);
+    }
+
+    /**
+     * In-place Fisher-Yates shuffle of cards[from] to cards[to - 1].
+     *
+     * @param cards  - the cards.
+     * @param from   - the first position to shuffle.
+     * @param to     - the position after the last one to shuffle.
+     * @param random - the random generator.
+     */
+    public static void shuffle(int[] cards, int from, int to, Random random) {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int card = cards[i];
+            cards[i] = cards[j];
+            cards[j] = card;
+        }
+    }
+}
@@ -17,13 +17,14 @@ public class HumanPlayer extends Player {
             //player waits for Key presses:
             try {
                 synchronized (this) {
-                    this.wait();
+                    while (InputQueue.isEmpty() && !terminate)
+                        this.wait();
                 }
-            } catch (InterruptedException KeyPress) {
-                //checking if got interrupted by a key press of the InputManager or by the dealer
-                if (!InputQueue.isEmpty() && !terminate)
-                    executeAction();
-            }
+            } catch (InterruptedException terminating) {}
+            //the key presses are processed outside of the synchronization, so the input manager is never blocked
+            //while the player waits for the dealer's response to a claim
+            if (!InputQueue.isEmpty() && !terminate)
+                executeAction();
         }
         System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
     }
@@ -35,10 +36,10 @@ public class HumanPlayer extends Player {
      */
     @Override
     public synchronized void keyPressed(int slot) {
-        //Processing the Input if the player's state allows him to play and if he placed less than 3 tokens
-        if (state == gameState.PLAYING && TokensPlaced < 3) {
+        //Processing the Input if the player's state allows him to play and if he placed less tokens than a set
+        if (state == gameState.PLAYING && table.countTokens(id) < env.config.featureSize) {
             InputQueue.offer(slot);
-            playerThread.interrupt();  //maybe sync and wait is needed between input manager thread and player
+            notifyAll();
         }
     }
 
@@ -47,28 +48,18 @@ public class HumanPlayer extends Player {
      */
     public void executeAction() {
         int KeyInput = InputQueue.poll();
+        if (KeyInput == Table.EMPTY) return;   //the dealer cleared the input between rounds
 
-        table.rwLock.readLock().lock();
-        // if no card is on the chosen slot->Ignore.
-        if (table.slotToCard[KeyInput] != null) {
-            //place a token on the chosen slot or remove the existing token:
-            if (table.tokens[id][KeyInput] == false) {
-                table.placeToken(id, KeyInput);
-            } else if (table.tokens[id][KeyInput] == true) {
-                table.removeToken(id, KeyInput);
-            }
-        }
-        table.rwLock.readLock().unlock();
+        //place a token on the chosen slot or remove the existing token, without locking (see Table::placeToken).
+        //if no card is on the chosen slot->Ignore.
+        if (!table.removeToken(id, KeyInput))
+            table.placeToken(id, KeyInput);
 
-        //claim a set if 3 cards were picked:
-        if (TokensPlaced == 3) {
+        //claim a set if a full set of cards was picked:
+        if (table.countTokens(id) == env.config.featureSize) {
             state = gameState.WAITING;
             InputQueue.clear();
             CheckMySet();
-            if (dealer.EndOfRound == true)
-                state = gameState.WAITING;
-            else
-                state = gameState.PLAYING;
         }
     }
 }
@@ -2,7 +2,7 @@ package omer.set.ex;
 
 import omer.set.Env;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
@@ -34,7 +34,7 @@ public abstract class Player implements Runnable {
     public final int id;
 
     /**
-     * Notifications being passed between entities through interrupting threads.
+     * The player's thread, parked while it waits for the dealer's response to a claim.
      */
     protected volatile Thread playerThread;
 
@@ -68,19 +68,48 @@ public abstract class Player implements Runnable {
      * queue of the slot that was pressed by the input manager for the next play (in use for Human Player).
      * concurrency - Input Manager thread & Player thread
      */
-    protected LinkedBlockingQueue<Integer> InputQueue;
+    protected final SlotQueue InputQueue;
 
     /**
-     * the slot that was pressed by the AiPlayer for the next play (in use for Ai Player).
+     * the slot that was pressed by the AiPlayer for the next play (in use for Ai Player, Table.EMPTY if none).
      * Volatile - Dealer thread and AiPlayer thread.
      */
-    protected volatile Integer Input ;
+    protected volatile int Input = Table.EMPTY;
 
     /**
-     * The number of cards that was already picked by the player.
-     * Volatile - player thread & dealer thread
+     * The event the player posts to the dealer's mailbox for each of its claims.
      */
-    protected volatile  Integer TokensPlaced;
+    protected final DealerEvent claim = new DealerEvent(DealerEvent.Type.CLAIM_SUBMITTED, this, 0);
+
+    /**
+     * The dealer's response to the player's pending claim (null until the dealer responds):
+     * POINT or PENALTY for a checked claim, PLAYING if the claim was dropped because another player took one of its
+     * cards, WAITING if the round ended before the claim was checked.
+     * Volatile - the dealer thread writes it and unparks the player thread, which reads it.
+     */
+    private volatile gameState verdict;
+
+    /**
+     * The admission control of the player's claims (see admitClaim): a token bucket, null if the rate is not limited.
+     */
+    private final TokenBucket claimBucket;
+
+    /**
+     * The current back off after claims that were not admitted (player thread only).
+     */
+    private long backOffNanos;
+
+    /**
+     * The number of claims that were held back by the token bucket and by the depth of the dealer's queue.
+     * Volatile - written by the player thread only, read by the dealer thread for its report.
+     */
+    private volatile long rateLimited;
+    private volatile long depthLimited;
+
+    /**
+     * The bounds of the back off while the dealer's queue is too deep.
+     */
+    private static final long MIN_BACK_OFF_NANOS = 1000000, MAX_BACK_OFF_NANOS = 500000000;
 
 
     public Player(Env env, Dealer dealer, Table table, int id) {
@@ -89,8 +118,8 @@ public abstract class Player implements Runnable {
         this.id = id;
         this.dealer = dealer;
         state = gameState.WAITING;
-        TokensPlaced = 0;
-        InputQueue = new LinkedBlockingQueue<>(3);
+        InputQueue = new SlotQueue(env.config.featureSize);
+        claimBucket = env.config.aiClaimsPerSecond > 0 ? new TokenBucket(env.config.aiClaimsPerSecond, env.config.aiClaimBurst) : null;
 
     }
 
@@ -114,25 +143,76 @@ public abstract class Player implements Runnable {
 
 
     /**
-     * The player asks the dealer to check his set by registering at the dealers requests queue
+     * The player asks the dealer to check his set by posting a claim to the dealer's mailbox, and waits for the
+     * dealer's response.
      */
     public void CheckMySet() {
-        dealer.requests.add(this);
-        dealer.dealerThread.interrupt();  //notify dealer to check the set
-        //waiting for dealer to check the set
-        try {
-            synchronized (this) {
-                wait();
-            }
-        } catch (InterruptedException setCheck) {}
+        verdict = null;
+        dealer.mailbox.post(claim);
+        gameState response;
+        while ((response = verdict) == null && !terminate)
+            LockSupport.park(this);
 
         //following the dealer's response:
-        if (state == gameState.POINT) {
+        if (response == gameState.POINT) {
             point();
-        } else if (state == gameState.PENALTY) {
+        } else if (response == gameState.PENALTY) {
             penalty();
+        } else if (response == gameState.WAITING || response == null) {
+            return;     //the round ended (or the game), the dealer resumes the players of the next round
         }
         // else the set was claimed by some other player before.
+
+        //resume playing unless the round ended meanwhile
+        synchronized (this) {
+            state = dealer.EndOfRound ? gameState.WAITING : gameState.PLAYING;
+        }
+    }
+
+    /**
+     * Admission control of the player's claims (used by computer players, so they don't flood the dealer):
+     * a claim is held back while the dealer has MaxPendingClaims claims waiting, or if the player's token bucket is
+     * empty. The back off doubles with every claim held back by the dealer's queue and halves with every admitted one.
+     *
+     * @return - 0 if the claim may be posted, otherwise the number of nanoseconds to back off before trying again.
+     */
+    protected long admitClaim() {
+        if (env.config.maxPendingClaims > 0 && dealer.mailbox.pendingClaims() >= env.config.maxPendingClaims) {
+            backOffNanos = Math.min(MAX_BACK_OFF_NANOS, Math.max(MIN_BACK_OFF_NANOS, backOffNanos * 2));
+            depthLimited++;
+            return backOffNanos;
+        }
+        long wait = claimBucket == null ? 0 : claimBucket.tryTake(System.nanoTime());
+        if (wait > 0) {
+            rateLimited++;
+            return Math.max(wait, backOffNanos);
+        }
+        backOffNanos /= 2;
+        return 0;
+    }
+
+    /**
+     * @return - the number of the player's claims held back by its token bucket.
+     */
+    public long rateLimitedClaims() {
+        return rateLimited;
+    }
+
+    /**
+     * @return - the number of the player's claims held back by the depth of the dealer's queue.
+     */
+    public long depthLimitedClaims() {
+        return depthLimited;
+    }
+
+    /**
+     * Called by the dealer to respond to the player's pending claim.
+     *
+     * @param response - the dealer's response (see verdict).
+     */
+    public void respond(gameState response) {
+        verdict = response;
+        LockSupport.unpark(playerThread);
     }
 
     /**
@@ -178,6 +258,7 @@ public abstract class Player implements Runnable {
 
     /**
      * Called when the game should be terminated.
+     * The interrupt cuts short the player's sleeps and waits.
      */
     public void terminate() {
         this.terminate = true;
@@ -0,0 +1,195 @@
+package omer.set.ex;
+
+import omer.set.Env;
+import omer.set.SetConsumer;
+
+import java.util.Arrays;
+
+/**
+ * A live index of the legal sets within a changing collection of cards.
+ * Keeps the number of sets in the collection. For decks of 3 values per feature it also keeps the number of those
+ * sets every card takes part in, and adding or removing a card updates the index in O(size) using the completing
+ * card of every pair; other decks recount the sets lazily on the first query after a change.
+ * Not thread safe - the owner serializes all access (Table's index is only used by the dealer thread).
+ *
+ * @inv position[cards[i]] == i for 0 <= i < size
+ */
+public class SetIndex {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The cards in the index, compacted at positions 0 to size - 1.
+     */
+    private final int[] cards;
+
+    /**
+     * The position of each card in the cards array (-1 if not in the index).
+     */
+    private final int[] position;
+
+    /**
+     * The number of cards in the index.
+     */
+    private int size;
+
+    /**
+     * The number of sets each card takes part in (only when incremental), and a scratch copy of it for forEachSet.
+     */
+    private final int[] incidence;
+    private final int[] unvisited;
+
+    /**
+     * The number of sets in the index.
+     */
+    private int setCount;
+
+    /**
+     * True iff sets are updated incrementally through the completing card of each pair.
+     */
+    private final boolean incremental;
+
+    /**
+     * True iff the set count must be recomputed before it is read (only when not incremental).
+     */
+    private boolean dirty;
+
+    public SetIndex(Env env) {
+        this.env = env;
+        cards = new int[env.config.deckSize];
+        position = new int[env.config.deckSize];
+        incidence = new int[env.config.deckSize];
+        unvisited = new int[env.config.deckSize];
+        Arrays.fill(position, -1);
+        incremental = env.config.featureSize == 3;
+    }
+
+    /**
+     * Adds a card and all the sets it completes to the index.
+     *
+     * @param card - the card id.
+     * @pre - !contains(card)
+     */
+    public void add(int card) {
+        if (incremental) updateSetsWith(card, 1);
+        else dirty = true;
+        position[card] = size;
+        cards[size++] = card;
+    }
+
+    /**
+     * Removes a card and all the sets it takes part in from the index.
+     *
+     * @param card - the card id.
+     * @pre - contains(card)
+     */
+    public void remove(int card) {
+        int last = cards[--size];
+        cards[position[card]] = last;
+        position[last] = position[card];
+        position[card] = -1;
+        if (incremental) updateSetsWith(card, -1);
+        else dirty = true;
+    }
+
+    /**
+     * Adds delta to the counts of every set formed by the given card (which is not in the index) and a pair of
+     * indexed cards. Each such set is visited once, from the earlier positioned card of the pair.
+     */
+    private void updateSetsWith(int card, int delta) {
+        for (int i = 0; i < size; ++i) {
+            int other = cards[i];
+            int third = env.util.completionOf(card, other);
+            if (position[third] > i) {
+                setCount += delta;
+                incidence[card] += delta;
+                incidence[other] += delta;
+                incidence[third] += delta;
+            }
+        }
+    }
+
+    /**
+     * Removes all the cards from the index.
+     */
+    public void clear() {
+        for (int i = 0; i < size; ++i) {
+            position[cards[i]] = -1;
+            incidence[cards[i]] = 0;
+        }
+        size = 0;
+        setCount = 0;
+        dirty = false;
+    }
+
+    /**
+     * @return - the number of cards in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return - a copy of the cards in the index (in no particular order).
+     */
+    public int[] cards() {
+        return Arrays.copyOf(cards, size);
+    }
+
+    /**
+     * @return - the number of legal sets among the cards in the index.
+     */
+    public int setCount() {
+        if (dirty) {
+            dirty = false;
+            setCount = size == 0 ? 0 : env.util.countSets(Arrays.copyOf(cards, size));
+        }
+        return setCount;
+    }
+
+    /**
+     * @return - true iff the cards in the index contain at least one legal set.
+     */
+    public boolean hasSet() {
+        if (dirty) return env.util.anySet(Arrays.copyOf(cards, size));
+        return setCount > 0;
+    }
+
+    /**
+     * Passes the legal sets in the index to the sink, until the sink returns false (see Util::forEachSet).
+     * When incremental, each card is paired only while it has sets left that were not passed, so cards that take
+     * part in no set are skipped and the scan stops as soon as all the sets were passed.
+     *
+     * @param sink - the receiver of the sets.
+     */
+    public void forEachSet(SetConsumer sink) {
+        if (!incremental) {
+            if (size > 0) env.util.forEachSet(Arrays.copyOf(cards, size), sink);
+            return;
+        }
+        for (int i = 0; i < size; ++i)
+            unvisited[cards[i]] = incidence[cards[i]];
+        int[] set = new int[3];
+        for (int i = 0, left = setCount; i < size && left > 0; ++i) {
+            int first = cards[i];
+            for (int j = i + 1; j < size && unvisited[first] > 0; ++j) {
+                int second = cards[j];
+                if (unvisited[second] == 0) continue;
+                int third = env.util.completionOf(first, second);
+                if (position[third] > j) {
+                    unvisited[first]--;
+                    unvisited[second]--;
+                    unvisited[third]--;
+                    left--;
+                    set[0] = first;
+                    set[1] = second;
+                    set[2] = third;
+                    if (!sink.accept(set)) return;
+                }
+            }
+        }
+    }
+}
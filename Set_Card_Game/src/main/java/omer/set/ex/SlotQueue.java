@@ -0,0 +1,49 @@
+package omer.set.ex;
+
+/**
+ * A bounded FIFO queue of slots in a primitive ring buffer.
+ * Thread safe - the input manager offers, the player polls, and the dealer clears it between rounds.
+ */
+class SlotQueue {
+
+    private final int[] slots;
+
+    /**
+     * The position of the oldest slot and the number of slots in the queue.
+     */
+    private int head;
+    private int size;
+
+    SlotQueue(int capacity) {
+        slots = new int[capacity];
+    }
+
+    /**
+     * @param slot - the slot.
+     * @return - true iff the slot was added (false if the queue is full).
+     */
+    synchronized boolean offer(int slot) {
+        if (size == slots.length) return false;
+        slots[(head + size++) % slots.length] = slot;
+        return true;
+    }
+
+    /**
+     * @return - the oldest slot, or Table.EMPTY if the queue is empty.
+     */
+    synchronized int poll() {
+        if (size == 0) return Table.EMPTY;
+        int slot = slots[head];
+        head = (head + 1) % slots.length;
+        size--;
+        return slot;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized void clear() {
+        head = size = 0;
+    }
+}
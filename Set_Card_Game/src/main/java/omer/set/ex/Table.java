@@ -3,16 +3,17 @@ package omer.set.ex;
 import omer.set.Env;
 
 import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.function.IntConsumer;
 
 /**
  * This class contains the data that is visible to the player.
  *
- * @inv slotToCard[x] == y iff cardToSlot[y] == x
+ * @inv slotToCard[x] == y iff cardToSlot.get(y) == x
  */
 public class Table {
 
@@ -22,19 +23,51 @@ public class Table {
     private final Env env;
 
     /**
-     * Mapping between a slot and the card placed in it (null if none).
+     * Marks an empty slot, or a card that is not on the table.
      */
-    protected final Integer[] slotToCard; // card per slot (if any)
+    public static final int EMPTY = -1;
 
     /**
-     * Mapping between a card and the slot it is in (null if none).
+     * Mapping between a slot and the card placed in it (EMPTY if none).
+     * Written by the dealer thread with release semantics (lazySet) and read with acquire semantics (get), other
+     * threads usually read the cards through snapshot().
      */
-    protected final Integer[] cardToSlot; // slot per card (if any)
+    private final AtomicIntegerArray slotToCard; // card per slot (if any)
 
     /**
-     * A grid that holds for each player the slots on which he placed a token.
+     * Mapping between a card and the slot it is in (EMPTY if none), dealer thread only.
      */
-    protected final boolean[][] tokens;
+    private final CardSlotMap cardToSlot; // slot per card (if any)
+
+    /**
+     * An immutable copy of the cards on the table, replaced after every change of the cards (see TableSnapshot).
+     * Volatile - written by the dealer thread and read by any thread without locking.
+     */
+    private volatile TableSnapshot snapshot;
+
+    /**
+     * The slots on which each player placed a token, as a bitmask of tokenWords words per player (bit slot % 64 of
+     * word slot / 64). Tokens are toggled with atomic read-modify-write operations, so neither the players nor the
+     * dealer need the table lock to place or remove them.
+     */
+    private final AtomicLongArray tokens;
+
+    /**
+     * The number of 64 bit words in each player's token bitmask.
+     */
+    private final int tokenWords;
+
+    /**
+     * The reverse index of tokens: the players that placed a token on each slot, as a bitmask of holderWords words per
+     * slot (bit player % 64 of word player / 64). Kept in step with tokens by placeToken and removeToken, so clearing
+     * a slot visits only the players that have a token on it.
+     */
+    private final AtomicLongArray holders;
+
+    /**
+     * The number of 64 bit words in each slot's holders bitmask.
+     */
+    private final int holderWords;
 
     /**
      * Game entities.
@@ -42,101 +75,417 @@ public class Table {
     private final Player[] players;
 
     /**
-     * Accessed to the table's shared resources through a Read-Write lock.
-     * Allowing all players to access the table simultaneously, except when the dealer is accessing the table.
-     * Giving priority to the dealer as the only writer.
+     * 1 iff the player's tokens mark a full legal set (computed when its last token was placed, cleared whenever one
+     * of its tokens is removed).
+     */
+    private final AtomicIntegerArray verdict;
+
+    /**
+     * While a player's tokens are one short of a set: the card completing them (-1 if none), its slot (EMPTY if it is
+     * not on the table) and the version of the snapshot it was found in (used only by the player's own thread).
+     */
+    private final int[] completion;
+    private final int[] completionSlot;
+    private final long[] completionVersion;
+
+    /**
+     * A buffer per player for the slots and the cards of its tokens (used only by the player's own thread).
+     */
+    private final int[][] selectedSlots;
+    private final int[][] selectedCards;
+
+    /**
+     * The dealer's lock on the table while it changes the cards, used unless the locking is striped (see
+     * Config::stripedLocking). Players toggle tokens without locking (see placeToken).
      */
     protected final ReadWriteLock rwLock;
 
+    /**
+     * A lock per slot, for striped locking: the dealer locks only the slots whose cards it replaces (null unless the
+     * locking is striped).
+     */
+    private final ReentrantLock[] slotLocks;
+
+    /**
+     * A live index of the legal sets among the cards currently on the table.
+     * Updated by placeCard(s) and removeCards on the dealer thread only, under the slot's striped lock (see
+     * StripedLocking), and read only by the dealer (hasSet, countCards and hints).
+     */
+    protected final SetIndex boardSets;
+
+    /**
+     * The analyses of the latest versions of the table, shared by the computer players (see analysis()).
+     */
+    private final TableAnalyzer analyzer;
 
     public Table(Env env, Player[] players) {
 
         this.env = env;
-        slotToCard = new Integer[env.config.tableSize];
-        cardToSlot = new Integer[env.config.deckSize];
+        slotToCard = new AtomicIntegerArray(env.config.tableSize);
+        for (int slot = 0; slot < env.config.tableSize; slot++)
+            slotToCard.set(slot, EMPTY);
+        cardToSlot = new CardSlotMap(env.config.deckSize, env.config.tableSize);
+        snapshot = new TableSnapshot(0, slotToCard);
         this.players = players;
-        tokens = new boolean[env.config.players][env.config.tableSize];
+        tokenWords = (env.config.tableSize + Long.SIZE - 1) / Long.SIZE;
+        tokens = new AtomicLongArray(env.config.players * tokenWords);
+        holderWords = (env.config.players + Long.SIZE - 1) / Long.SIZE;
+        holders = new AtomicLongArray(env.config.tableSize * holderWords);
         rwLock = new ReentrantReadWriteLock(true);
+        slotLocks = env.config.stripedLocking ? new ReentrantLock[env.config.tableSize] : null;
+        if (slotLocks != null)
+            Arrays.setAll(slotLocks, slot -> new ReentrantLock());
+        boardSets = new SetIndex(env);
+        analyzer = new TableAnalyzer(env);
+        verdict = new AtomicIntegerArray(env.config.players);
+        completion = new int[env.config.players];
+        completionSlot = new int[env.config.players];
+        completionVersion = new long[env.config.players];
+        Arrays.fill(completion, -1);
+        Arrays.fill(completionSlot, EMPTY);
+        Arrays.fill(completionVersion, -1);
+        selectedSlots = new int[env.config.players][env.config.featureSize];
+        selectedCards = new int[env.config.players][env.config.featureSize];
 
     }
 
+    /**
+     * Locks slots for the dealer while it replaces their cards. The slots are locked in ascending order, so the
+     * dealer never deadlocks with a thread that locks slots in the same order.
+     * When the locking is striped, placeCard(s) and removeCards also lock their own slot.
+     * @param slots - the slots, in ascending order.
+     */
+    public void lockSlots(int[] slots) {
+        if (slotLocks == null) rwLock.writeLock().lock();
+        else for (int slot : slots) slotLocks[slot].lock();
+    }
+
+    public void unlockSlots(int[] slots) {
+        if (slotLocks == null) rwLock.writeLock().unlock();
+        else for (int i = slots.length - 1; i >= 0; i--) slotLocks[slots[i]].unlock();
+    }
+
+    /**
+     * Locks the whole table for the dealer (all the slots in ascending order when the locking is striped).
+     */
+    public void lockTable() {
+        if (slotLocks == null) rwLock.writeLock().lock();
+        else for (ReentrantLock lock : slotLocks) lock.lock();
+    }
+
+    public void unlockTable() {
+        if (slotLocks == null) rwLock.writeLock().unlock();
+        else for (int slot = slotLocks.length - 1; slot >= 0; slot--) slotLocks[slot].unlock();
+    }
+
+    /**
+     * @param slot - the slot.
+     * @return - the card in the slot, or EMPTY if there is none.
+     */
+    public int cardAt(int slot) {
+        return slotToCard.get(slot);
+    }
+
+    /**
+     * @param card - the card id.
+     * @return - the slot of the card, or EMPTY if it is not on the table (dealer thread only).
+     */
+    public int slotOf(int card) {
+        return cardToSlot.get(card);
+    }
+
+    /**
+     * @return - the latest snapshot of the cards on the table (a single volatile read, no locking).
+     */
+    public TableSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return - the analysis of the latest snapshot of the table (computed once per version and shared by all the
+     * callers, see TableAnalyzer).
+     */
+    public TableAnalysis analysis() {
+        return analyzer.analyze(snapshot);
+    }
+
+    /**
+     * @return - the number of calls to analysis() that were served from the cache, and that computed the analysis.
+     */
+    public long analysisHits() {
+        return analyzer.hits();
+    }
+
+    public long analysisMisses() {
+        return analyzer.misses();
+    }
+
+    /**
+     * Publishes a snapshot of the current cards on the table (dealer thread only).
+     */
+    private void publish() {
+        snapshot = new TableSnapshot(snapshot.version + 1, slotToCard);
+    }
+
     /**
      * This method prints all possible legal sets of cards that are currently on the table.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
+        int[] cards = new int[env.config.featureSize], slots = new int[env.config.featureSize];
+        boardSets.forEachSet(set -> {
+            System.arraycopy(set, 0, cards, 0, cards.length);
+            Arrays.sort(cards);
+            for (int i = 0; i < cards.length; i++)
+                slots[i] = slotOf(cards[i]);
+            Arrays.sort(slots);
             StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
-            int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+            int[][] features = env.util.cardsToFeatures(cards);
+            System.out.println(sb.append("slots: ").append(Arrays.toString(slots)).append(" features: ").append(Arrays.deepToString(features)));
+            return true;
         });
     }
 
+    /**
+     * @return - true iff the cards on the table contain at least one legal set.
+     */
+    public boolean hasSet() {
+        return boardSets.hasSet();
+    }
+
+    /**
+     * @return - the number of cards on the table.
+     */
+    public int countCards() {
+        return boardSets.size();
+    }
+
+
 
     /**
      * Places a card on the table in a grid slot.
+     * The table changes right away: the dealing animation is left to the ui (see Config::tableDelayMillis).
      * @param card - the card id to place in the slot.
      * @param slot - the slot in which the card should be placed.
      *
      * @post - the card placed is on the table, in the assigned slot.
      */
     public void placeCard(int card, int slot) {
-        // delaying the actions of placing cards for ui
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
-
-        cardToSlot[card] = slot;
-        slotToCard[slot] = card;
+        putCard(card, slot);
+        publish();
         env.ui.placeCard(card, slot);
     }
 
     /**
-     * Removes a card from a grid slot on the table & removes all tokens from the grid slot
-     * @param slot - the slot from which to remove the card.
+     * Places a batch of cards on the table, with a single snapshot and a single ui update for all of them.
+     * @param cards - the card ids to place.
+     * @param slots - the slots in which the cards should be placed, slots[i] for cards[i].
      */
-    public void removeCard(int slot) {
-        // ux-ui delaying the actions of the dealer
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
+    public void placeCards(int[] cards, int[] slots) {
+        if (slots.length == 0) return;
+        //a single snapshot for the whole batch (a player that sees a slot still empty just doesn't place its token)
+        for (int i = 0; i < slots.length; i++)
+            putCard(cards[i], slots[i]);
+        publish();
+        env.ui.placeCards(cards, slots);
+    }
 
-        //removing the players' tokens from the grid slot
-        for (Player player : players){
-            if(tokens[player.id][slot] == true)
-                removeToken(player.id, slot);
+    private void putCard(int card, int slot) {
+        if (slotLocks != null) slotLocks[slot].lock();
+        try {
+            cardToSlot.put(card, slot);
+            slotToCard.lazySet(slot, card);
+            boardSets.add(card);
+        } finally {
+            if (slotLocks != null) slotLocks[slot].unlock();
         }
-        //removing the card
-        int card = slotToCard[slot];
-        slotToCard[slot] = null;
-        cardToSlot[card] = null;
-        env.ui.removeCard(slot);
-
     }
 
+    /**
+     * Removes a batch of cards (and all their tokens) from the table, with a single snapshot and a single ui update.
+     * @param slots - the slots from which to remove the cards.
+     */
+    public void removeCards(int[] slots) {
+        if (slots.length == 0) return;
+        //removing the cards first, so a player that places a token on one of the slots concurrently either sees it
+        //gone (see placeToken) or has its token removed below
+        boolean removed = false;
+        for (int slot : slots)
+            removed |= takeCard(slot);
+        if (!removed) return;
+        publish();
+
+        //removing the players' tokens from the grid slots
+        for (int slot : slots)
+            removeTokens(slot, player -> {});
+        env.ui.removeCards(slots);
+    }
 
+    private boolean takeCard(int slot) {
+        if (slotLocks != null) slotLocks[slot].lock();
+        try {
+            int card = slotToCard.get(slot);
+            if (card == EMPTY) return false;
+            slotToCard.lazySet(slot, EMPTY);
+            cardToSlot.remove(card);
+            boardSets.remove(card);
+            return true;
+        } finally {
+            if (slotLocks != null) slotLocks[slot].unlock();
+        }
+    }
 
     /**
-     * Places a player token on a grid slot.
+     * Places a player token on a grid slot, unless the player already has a token there or the slot has no card.
+     * Lock free: the token (and its entry in the slot's holders) is set first and the card is checked after it (in the
+     * latest snapshot), while the dealer publishes a snapshot without the card before removing the slot's holders'
+     * tokens (see removeCards), so a token never stays on a slot whose card was removed.
      * @param player - the player the token belongs to.
      * @param slot   - the slot on which to place the token.
+     * @return - true iff the token was placed.
      */
-    public void placeToken(int player, int slot) {
-            tokens[player][slot] = true;
-            players[player].TokensPlaced++;
-            env.ui.placeToken(player, slot);
+    public boolean placeToken(int player, int slot) {
+        int word = player * tokenWords + slot / Long.SIZE;
+        long bit = 1L << slot;
+        if ((tokens.getAndAccumulate(word, bit, (bits, mask) -> bits | mask) & bit) != 0) return false;
+        holders.getAndAccumulate(slot * holderWords + player / Long.SIZE, 1L << player, (bits, mask) -> bits | mask);
+        if (snapshot.card(slot) == EMPTY) {
+            if ((tokens.getAndAccumulate(word, ~bit, (bits, mask) -> bits & mask) & bit) != 0)
+                clearHolder(player, slot);
+            return false;
+        }
+        if (Thread.currentThread() == players[player].playerThread) prevalidate(player, slot);
+        env.ui.placeToken(player, slot);
+        //the dealer may have removed the token meanwhile, and its ui update may have come first
+        if (!hasToken(player, slot)) env.ui.removeToken(player, slot);
+        return true;
     }
 
 
     /**
-     * Removes a token of a player from a grid slot.
+     * Removes a token of a player from a grid slot (if there is one).
      * @param player - the player the token belongs to.
      * @param slot   - the slot from which to remove the token.
+     * @return - true iff the token was removed.
      */
-    public void removeToken(int player, int slot) {
-        tokens[player][slot] = false;
-        players[player].TokensPlaced--;
+    public boolean removeToken(int player, int slot) {
+        int word = player * tokenWords + slot / Long.SIZE;
+        long bit = 1L << slot;
+        if ((tokens.getAndAccumulate(word, ~bit, (bits, mask) -> bits & mask) & bit) == 0) return false;
+        clearHolder(player, slot);
+        verdict.set(player, 0);
+        if (Thread.currentThread() == players[player].playerThread) prevalidate(player, EMPTY);
         env.ui.removeToken(player, slot);
+        return true;
+    }
+
+    private void clearHolder(int player, int slot) {
+        holders.getAndAccumulate(slot * holderWords + player / Long.SIZE, ~(1L << player), (bits, mask) -> bits & mask);
+    }
+
+    /**
+     * Removes all the tokens from a grid slot, visiting only the players that have a token on it.
+     * @param slot    - the slot.
+     * @param removed - called with the id of each player whose token was removed.
+     */
+    public void removeTokens(int slot, IntConsumer removed) {
+        for (int i = 0; i < holderWords; i++)
+            for (long bits = holders.get(slot * holderWords + i); bits != 0; bits &= bits - 1) {
+                int player = i * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                if (removeToken(player, slot)) removed.accept(player);
+            }
+    }
+
+    /**
+     * @param player - the player.
+     * @param slot   - the slot.
+     * @return - true iff the player has a token on the slot.
+     */
+    public boolean hasToken(int player, int slot) {
+        return (tokens.get(player * tokenWords + slot / Long.SIZE) & (1L << slot)) != 0;
+    }
+
+    /**
+     * @param player - the player.
+     * @return - the number of tokens the player has on the table.
+     */
+    public int countTokens(int player) {
+        int count = 0;
+        for (int i = 0; i < tokenWords; i++)
+            count += Long.bitCount(tokens.get(player * tokenWords + i));
+        return count;
+    }
+
+    /**
+     * Copies the slots of up to out.length of the player's tokens into out, in ascending order.
+     *
+     * @return - the number of slots copied.
+     */
+    private int tokenSlots(int player, int[] out) {
+        int count = 0;
+        for (int i = 0; i < tokenWords && count < out.length; i++)
+            for (long bits = tokens.get(player * tokenWords + i); bits != 0 && count < out.length; bits &= bits - 1)
+                out[count++] = i * Long.SIZE + Long.numberOfTrailingZeros(bits);
+        return count;
+    }
+
+    /**
+     * Validates a player's tokens speculatively, on the player's thread, while they are being placed.
+     * Once the tokens are one short of a set the card completing them and its slot are recorded, so when the last
+     * token lands on that slot (and the cards did not change meanwhile) the verdict needs no set test; otherwise the
+     * card completing all but one of the tokens is compared with the remaining one. The dealer only reads the verdict.
+     *
+     * @param player - the player whose tokens changed.
+     * @param placed - the slot a token was just placed on, or EMPTY if a token was removed.
+     */
+    private void prevalidate(int player, int placed) {
+        int setSize = selectedSlots[player].length;
+        int[] slots = selectedSlots[player], cards = selectedCards[player];
+        int count = countTokens(player);
+        verdict.set(player, 0);
+        if (count != setSize - 1 && count != setSize) return;
+        TableSnapshot board = snapshot;
+        if (count == setSize && placed == completionSlot[player] && board.version == completionVersion[player]) {
+            verdict.set(player, 1);
+            return;
+        }
+        count = tokenSlots(player, slots);
+        for (int i = 0; i < count; i++) {
+            int card = board.card(slots[i]);
+            if (card == EMPTY) return;   //the dealer is removing the card, and the token with it
+            cards[i] = card;
+        }
+        if (count == setSize - 1 && setSize >= 3) {
+            completion[player] = env.util.completionOf(cards, count);
+            completionSlot[player] = completion[player] == -1 ? EMPTY : board.slotOf(completion[player]);
+            completionVersion[player] = board.version;
+        } else if (count == setSize) {
+            boolean legal;
+            if (setSize < 3) legal = env.util.testSet(cards);
+            else {
+                int completes = env.util.completionOf(cards, setSize - 1);
+                legal = completes != -1 && completes == cards[setSize - 1];
+            }
+            verdict.set(player, legal ? 1 : 0);
+        }
+    }
+
+    /**
+     * Returns the verdict on a player's claim, which was computed when the last token of the claim was placed.
+     *
+     * @param player - the claiming player.
+     * @return - true iff the player's tokens mark a legal set.
+     */
+    public boolean claimVerdict(int player) {
+        return verdict.get(player) == 1;
+    }
+
+    /**
+     * Copies the slots of up to out.length of the player's tokens into out, in ascending order.
+     * @param player - the player.
+     * @param out    - the buffer for the slots.
+     * @return - the number of slots copied.
+     */
+    public int claimedSlots(int player, int[] out) {
+        return tokenSlots(player, out);
     }
 }
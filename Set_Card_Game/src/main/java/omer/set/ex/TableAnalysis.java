@@ -0,0 +1,123 @@
+package omer.set.ex;
+
+import omer.set.Env;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable analysis of a table snapshot, shared by the computer players (see Table::analysis).
+ */
+public final class TableAnalysis {
+
+    /**
+     * The version of the table snapshot that was analysed.
+     */
+    public final long version;
+
+    /**
+     * The slots of each legal set on the table, in ascending order (setCount * setSize entries).
+     */
+    private final int[] setSlots;
+    private final int setSize;
+
+    /**
+     * The number of legal sets each slot is part of.
+     */
+    private final int[] usefulness;
+
+    /**
+     * The slot whose card completes the cards of slots first and second to a set: pairCompletion[first * slots +
+     * second] (Table.EMPTY if it is not on the table); null unless the sets are of 3 cards.
+     */
+    private final int[] pairCompletion;
+
+    TableAnalysis(Env env, TableSnapshot snapshot) {
+        version = snapshot.version;
+        setSize = env.config.featureSize;
+        int slots = snapshot.slotCount();
+
+        //the cards on the table sorted together with their slots, for looking up the slot of a card
+        int[] cards = snapshot.cards();
+        long[] cardSlots = new long[cards.length];
+        for (int slot = 0, i = 0; slot < slots; slot++)
+            if (snapshot.card(slot) != Table.EMPTY)
+                cardSlots[i++] = (long) snapshot.card(slot) << 32 | slot;
+        Arrays.sort(cardSlots);
+
+        List<int[]> sets = cards.length < setSize ? Collections.emptyList() : env.util.findSets(cards, Integer.MAX_VALUE);
+        setSlots = new int[sets.size() * setSize];
+        usefulness = new int[slots];
+        for (int s = 0; s < sets.size(); s++) {
+            int[] set = sets.get(s);
+            for (int j = 0; j < setSize; j++) {
+                int slot = slotOf(cardSlots, set[j]);
+                setSlots[s * setSize + j] = slot;
+                usefulness[slot]++;
+            }
+            Arrays.sort(setSlots, s * setSize, (s + 1) * setSize);
+        }
+
+        if (setSize == 3) {
+            pairCompletion = new int[slots * slots];
+            Arrays.fill(pairCompletion, Table.EMPTY);
+            for (int first = 0; first < slots; first++)
+                for (int second = first + 1; second < slots; second++) {
+                    if (snapshot.card(first) == Table.EMPTY || snapshot.card(second) == Table.EMPTY) continue;
+                    int third = env.util.completionOf(snapshot.card(first), snapshot.card(second));
+                    int slot = third == -1 ? Table.EMPTY : slotOf(cardSlots, third);
+                    pairCompletion[first * slots + second] = pairCompletion[second * slots + first] = slot;
+                }
+        } else {
+            pairCompletion = null;
+        }
+    }
+
+    private static int slotOf(long[] cardSlots, int card) {
+        int low = 0, high = cardSlots.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int found = (int) (cardSlots[middle] >> 32);
+            if (found < card) low = middle + 1;
+            else if (found > card) high = middle - 1;
+            else return (int) cardSlots[middle];
+        }
+        return Table.EMPTY;
+    }
+
+    /**
+     * @return - the number of legal sets on the table.
+     */
+    public int setCount() {
+        return setSlots.length / setSize;
+    }
+
+    /**
+     * @param set   - the index of the set (0 to setCount() - 1).
+     * @param index - the index of the slot in the set (0 to featureSize - 1).
+     * @return - the slot, the slots of each set are in ascending order.
+     */
+    public int slot(int set, int index) {
+        return setSlots[set * setSize + index];
+    }
+
+    /**
+     * @param slot - the slot.
+     * @return - the number of legal sets the card in the slot is part of.
+     */
+    public int usefulness(int slot) {
+        return usefulness[slot];
+    }
+
+    /**
+     * @param first  - a slot.
+     * @param second - another slot.
+     * @return - the slot of the card completing the cards in the two slots to a set, or Table.EMPTY if it is not on the
+     * table (or the sets are not of 3 cards).
+     */
+    public int completingSlot(int first, int second) {
+        if (pairCompletion == null) return Table.EMPTY;
+        return pairCompletion[first * usefulness.length + second];
+    }
+}
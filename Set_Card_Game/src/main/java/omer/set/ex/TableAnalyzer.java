@@ -0,0 +1,59 @@
+package omer.set.ex;
+
+import omer.set.Env;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Analyses the table for the computer players once per version of the table, in a small cache indexed by version.
+ * Thread safe.
+ */
+class TableAnalyzer {
+
+    /**
+     * The number of table versions kept in the cache.
+     */
+    private static final int CACHED_VERSIONS = 8;
+
+    private final Env env;
+
+    private final AtomicReferenceArray<TableAnalysis> cache = new AtomicReferenceArray<>(CACHED_VERSIONS);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    TableAnalyzer(Env env) {
+        this.env = env;
+    }
+
+    /**
+     * @param snapshot - a snapshot of the table.
+     * @return - the analysis of the snapshot (computed only if it is not in the cache).
+     */
+    TableAnalysis analyze(TableSnapshot snapshot) {
+        int index = (int) (snapshot.version % CACHED_VERSIONS);
+        TableAnalysis analysis = cache.get(index);
+        if (analysis == null || analysis.version != snapshot.version) {
+            synchronized (this) {
+                analysis = cache.get(index);
+                if (analysis == null || analysis.version != snapshot.version) {
+                    misses.increment();
+                    analysis = new TableAnalysis(env, snapshot);
+                    cache.set(index, analysis);
+                    return analysis;
+                }
+            }
+        }
+        hits.increment();
+        return analysis;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,78 @@
+package omer.set.ex;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An immutable view of the cards on the table (without the tokens), published after every change of the cards.
+ *
+ * @inv version grows by 1 with every change of the cards, so equal versions mean equal cards
+ */
+public final class TableSnapshot {
+
+    /**
+     * The number of changes made to the cards on the table before this snapshot.
+     */
+    public final long version;
+
+    /**
+     * The card in each slot (Table.EMPTY if none).
+     */
+    private final int[] slotToCard;
+
+    /**
+     * The number of cards on the table.
+     */
+    private final int cardCount;
+
+    TableSnapshot(long version, AtomicIntegerArray slotToCard) {
+        this.version = version;
+        this.slotToCard = new int[slotToCard.length()];
+        int count = 0;
+        for (int slot = 0; slot < this.slotToCard.length; slot++) {
+            this.slotToCard[slot] = slotToCard.get(slot);
+            if (this.slotToCard[slot] != Table.EMPTY) count++;
+        }
+        cardCount = count;
+    }
+
+    /**
+     * @param slot - the slot.
+     * @return - the card in the slot, or Table.EMPTY if the slot is empty.
+     */
+    public int card(int slot) {
+        return slotToCard[slot];
+    }
+
+    /**
+     * @param card - the card id.
+     * @return - the slot of the card, or Table.EMPTY if it is not on the table.
+     */
+    public int slotOf(int card) {
+        for (int slot = 0; slot < slotToCard.length; slot++)
+            if (slotToCard[slot] == card) return slot;
+        return Table.EMPTY;
+    }
+
+    /**
+     * @return - the number of slots on the table.
+     */
+    public int slotCount() {
+        return slotToCard.length;
+    }
+
+    /**
+     * @return - the cards on the table, in the order of their slots.
+     */
+    public int[] cards() {
+        int[] cards = new int[cardCount];
+        for (int slot = 0, i = 0; slot < slotToCard.length; slot++)
+            if (slotToCard[slot] != Table.EMPTY) cards[i++] = slotToCard[slot];
+        return cards;
+    }
+
+    @Override
+    public String toString() {
+        return "TableSnapshot{version=" + version + ", slotToCard=" + Arrays.toString(slotToCard) + "}";
+    }
+}
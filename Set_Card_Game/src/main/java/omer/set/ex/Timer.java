@@ -18,8 +18,7 @@ public class Timer implements Runnable{
     protected final Dealer dealer;
 
     /**
-     * Notifications are passed between dealer and timer thread through interrupting threads.
-     * Volatile - timer thread reads from this shared resource and dealer thread writes
+     * The timer's thread.
      */
     protected volatile Thread timerThread;
 
@@ -31,8 +30,14 @@ public class Timer implements Runnable{
 
     /**
      * The time when the dealer needs to reshuffle the deck due to round timeout.
+     * Volatile - timer thread reads from this shared resource and dealer thread may restart it
      */
-    private long reshuffleTime = Long.MAX_VALUE;
+    private volatile long reshuffleTime = Long.MAX_VALUE;
+
+    /**
+     * The number of rounds started by the dealer so far (guarded by the timer's monitor).
+     */
+    private long round;
 
     public Timer (Env env, Dealer dealer){
         this.env = env;
@@ -45,23 +50,28 @@ public class Timer implements Runnable{
     public void run(){
         System.out.printf("Info: Thread %s starting.%n", Thread.currentThread().getName());
         timerThread = Thread.currentThread();
+        long timedRound = 0;
 
         //main loop of the timer:
         while (!terminate){
             //Waiting for the dealer to start the timer of the new round
-            try{synchronized (this){this.wait();}}
+            try{synchronized (this){while (round == timedRound && !terminate) this.wait();}}
             catch (InterruptedException TimerStarting){}
-
-            //reset the timer for the new round:
-            reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis;
             updateTimerDisplay(env.config.turnTimeoutMillis);
 
-            //The current round's timer:
-            TimerInnerLoop();
+            //The current round's timer (the round may be restarted during the countdown, then the latest one is timed):
+            boolean timedOut;
+            do {
+                TimerInnerLoop();
+                synchronized (this) {
+                    timedRound = round;
+                    timedOut = System.currentTimeMillis() >= reshuffleTime;
+                }
+            } while (!timedOut && !terminate);
 
             //notifying the dealer that this is the end of the current round
-            dealer.EndOfRound = true;
-            dealer.dealerThread.interrupt();
+            if (!terminate)
+                dealer.mailbox.post(new DealerEvent(DealerEvent.Type.ROUND_TIMEOUT, null, timedRound));
             }
 
         System.out.printf("Info: Thread %s terminated.%n", Thread.currentThread().getName());
@@ -76,12 +86,9 @@ public class Timer implements Runnable{
             updateTimerDisplay(timeLeft);
 
             //Normally the timer is updated every second, for the last few seconds of a round it is updated every millisecond
-            if (timeLeft > env.config.turnTimeoutWarningMillis & timeLeft > 1000) {
-                try {timerThread.sleep(1000);} catch (InterruptedException Ignored){}
-            }
-            else {
-                try {timerThread.sleep(1);} catch (InterruptedException Ignored){}
-            }
+            //(a restart of the round wakes the timer up to display the new countdown right away)
+            long delay = timeLeft > env.config.turnTimeoutWarningMillis & timeLeft > 1000 ? 1000 : 1;
+            try {synchronized (this) {this.wait(delay);}} catch (InterruptedException Ignored){}
         }
     }
 
@@ -98,12 +105,37 @@ public class Timer implements Runnable{
             env.ui.setCountdown(timeLeft, true);
     }
 
+    /**
+     * Restarts the countdown of the current round (when the dealer ends a round before it timed out).
+     */
+    public void restart() {
+        reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis;
+    }
+
+    /**
+     * Starts the countdown of a new round.
+     *
+     * @return the number of the new round, which the timer reports back to the dealer when the round times out.
+     */
+    public synchronized long startRound() {
+        restart();
+        notifyAll();
+        return ++round;
+    }
+
+    /**
+     * @return the number of milliseconds left until the current round times out (0 if it already did).
+     */
+    public long timeLeft() {
+        return Math.max(0, reshuffleTime - System.currentTimeMillis());
+    }
+
     /**
      *Terminates the timer if the game Ends
      */
-    public void terminate(){
+    public synchronized void terminate(){
         terminate = true;
-        timerThread.interrupt();
+        notifyAll();
     }
 
 }
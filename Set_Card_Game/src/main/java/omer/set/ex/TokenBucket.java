@@ -0,0 +1,46 @@
+package omer.set.ex;
+
+/**
+ * A token bucket limiting the rate of a player's claims.
+ * Not thread safe - used only by the player's thread.
+ */
+class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+
+    /**
+     * The tokens in the bucket at the time of the last refill.
+     */
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param perSecond - the number of tokens added per second.
+     * @param capacity  - the largest number of tokens in the bucket (at least 1).
+     */
+    TokenBucket(double perSecond, int capacity) {
+        tokensPerNano = perSecond / 1e9;
+        this.capacity = Math.max(1, capacity);
+        tokens = this.capacity;
+        lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a token out of the bucket, if there is one.
+     *
+     * @param now - the current System.nanoTime().
+     * @return - 0 if a token was taken, otherwise the number of nanoseconds until the next token is added.
+     */
+    long tryTake(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+}
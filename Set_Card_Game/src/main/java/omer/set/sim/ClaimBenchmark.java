@@ -0,0 +1,219 @@
+package omer.set.sim;
+
+import omer.set.Config;
+import omer.set.Env;
+import omer.set.UserInterface;
+import omer.set.UserInterfaceDecorator;
+import omer.set.Util;
+import omer.set.UtilImpl;
+import omer.set.ex.Dealer;
+import omer.set.ex.HumanPlayer;
+import omer.set.ex.Player;
+import omer.set.ex.Table;
+import omer.set.ex.TableSnapshot;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A headless benchmark of the bytes allocated by the claim pipeline: an input thread presses a set's worth of keys of
+ * a human player, whose thread places the tokens, claims them and waits for the dealer's verdict, over and over,
+ * against a real dealer thread.
+ * The claimed cards are not a legal set, so the table never changes and the pipeline runs in its steady state (a won
+ * claim replaces cards, which publishes a new table snapshot and is not measured).
+ * The user interface is the UserInterfaceDecorator that Main installs, with logging off by default: Main logs
+ * everything, and then each update of the user interface allocates its log message (pass a log level such as ALL to
+ * measure that). Before each claim the player also runs the computer players' admission check (see
+ * Player::admitClaim), whose answer is ignored; the rest of the computer players' loop is not measured.
+ * The bytes allocated by the input, the player and the dealer threads are measured after a warm up long enough for
+ * the JIT compiler to settle (compilations allocate a few bytes on the compiled code's thread); the benchmark exits
+ * with status 1 if any bytes were allocated during the measured claims.
+ * <p>
+ * Usage: ClaimBenchmark [config file] [claims] [warmup claims] [log level]
+ */
+public class ClaimBenchmark {
+
+    /**
+     * The phases of the benchmark, handed between the main thread (which measures) and the input thread.
+     */
+    private static final int WARMING_UP = 0, WARMED_UP = 1, MEASURING = 2, DONE = 3, MEASURED = 4;
+
+    private static volatile int phase = WARMING_UP;
+
+    public static void main(String[] args) throws InterruptedException {
+        String configFile = args.length > 0 ? args[0] : "config.properties";
+        int claims = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        Level level = args.length > 3 ? Level.parse(args[3]) : Level.OFF;
+
+        Logger logger = Logger.getLogger("SetClaimBenchmarkLogger");
+        logger.setUseParentHandlers(false);
+        Properties properties = Config.loadProperties(configFile, logger);
+        properties.setProperty("HumanPlayers", "1");
+        properties.setProperty("ComputerPlayers", "0");
+        properties.setProperty("PenaltyFreezeSeconds", "0");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("TurnTimeoutSeconds", "3600");
+        properties.setProperty("Hints", "False");
+        Config config = new Config(logger, properties);
+        Util util = new UtilImpl(config);
+        //no handlers, so at any level the messages are built but not written
+        logger.setLevel(level);
+        Env env = new Env(logger, config, new UserInterfaceDecorator(logger, util, new SilentUserInterface()), util);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("allocation counting is not supported by this JVM");
+            System.exit(2);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Player[] players = new Player[1];
+        Table table = new Table(env, players);
+        Dealer dealer = new Dealer(env, table, players);
+        ClaimingPlayer player = new ClaimingPlayer(env, dealer, table);
+        players[0] = player;
+        Thread dealerThread = new Thread(dealer, "dealer");
+        Thread inputThread = new Thread(() -> pressKeys(env, table, player, warmup, claims), "input");
+        dealerThread.start();
+        inputThread.start();
+
+        while (phase != WARMED_UP) Thread.sleep(1);
+        long[] ids = {inputThread.getId(), player.thread.getId(), dealerThread.getId()};
+        long[] before = new long[ids.length], bytes = new long[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            before[i] = threads.getThreadAllocatedBytes(ids[i]);
+        long start = System.nanoTime();
+        phase = MEASURING;
+        while (phase != DONE) Thread.sleep(1);
+        long nanos = System.nanoTime() - start;
+        long total = 0;
+        for (int i = 0; i < ids.length; i++)
+            total += bytes[i] = threads.getThreadAllocatedBytes(ids[i]) - before[i];
+        phase = MEASURED;
+
+        inputThread.join();
+        dealer.terminate();
+        dealerThread.join();
+        System.out.printf("%d claims in %d ms, %.1f us per claim, %d bytes allocated (input %d, player %d, dealer %d, %.2f bytes per claim)%n",
+                claims, nanos / 1000000, nanos / 1e3 / claims, total, bytes[0], bytes[1], bytes[2], (double) total / claims);
+        System.out.printf("measured: a human player with logging at %s and the admission check; not measured: the computer players' loop%n",
+                level);
+        if (player.rejected != claims) {
+            System.err.printf("only %d of %d claims were rejected%n", player.rejected, claims);
+            System.exit(1);
+        }
+        if (total > 0) {
+            System.err.println("the claim pipeline allocates");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The input thread: presses the keys of an illegal set, and waits for the player to claim it, over and over.
+     * Stays alive until the main thread read the bytes it allocated.
+     */
+    private static void pressKeys(Env env, Table table, ClaimingPlayer player, int warmup, int claims) {
+        while (!player.playing()) Thread.yield();
+        int[] slots = illegalSet(env, table.snapshot());
+        for (int i = 0; i < warmup; i++)
+            claim(player, slots);
+
+        //the first deal may have been replaced (e.g. if it had no set), so the slots are chosen again
+        slots = illegalSet(env, table.snapshot());
+        player.rejected = 0;
+        phase = WARMED_UP;
+        while (phase == WARMED_UP) Thread.yield();
+        for (int i = 0; i < claims; i++)
+            claim(player, slots);
+        phase = DONE;
+        while (phase == DONE) Thread.yield();
+    }
+
+    /**
+     * Presses the keys of the slots and waits until the player claimed them and may play again.
+     */
+    private static void claim(ClaimingPlayer player, int[] slots) {
+        int claimed = player.claimed;
+        for (int slot : slots)
+            player.keyPressed(slot);
+        while (player.claimed == claimed || !player.playing()) Thread.yield();
+    }
+
+    /**
+     * @return - featureSize slots of the table whose cards are not a legal set.
+     */
+    private static int[] illegalSet(Env env, TableSnapshot board) {
+        int setSize = env.config.featureSize;
+        int[] slots = new int[setSize], cards = new int[setSize];
+        int count = 0;
+        for (int slot = 0; slot < board.slotCount() && count < setSize - 1; slot++)
+            if (board.card(slot) != Table.EMPTY) {
+                slots[count] = slot;
+                cards[count++] = board.card(slot);
+            }
+        for (int slot = slots[setSize - 2] + 1; slot < board.slotCount(); slot++) {
+            if (board.card(slot) == Table.EMPTY) continue;
+            slots[setSize - 1] = slot;
+            cards[setSize - 1] = board.card(slot);
+            if (!env.util.testSet(cards)) return slots;
+        }
+        throw new IllegalStateException("no illegal set on the table");
+    }
+
+    /**
+     * A human player that counts its claims, and the claims the dealer rejected (and removed their tokens).
+     */
+    private static class ClaimingPlayer extends HumanPlayer {
+
+        private volatile Thread thread;
+        private volatile int claimed;
+        private volatile int rejected;
+
+        ClaimingPlayer(Env env, Dealer dealer, Table table) {
+            super(env, dealer, table, 0);
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            super.run();
+        }
+
+        @Override
+        public void executeAction() {
+            boolean claiming = table.countTokens(id) == env.config.featureSize - 1;
+            if (claiming) admitClaim();
+            super.executeAction();
+            if (!claiming) return;
+            if (table.countTokens(id) == 0) rejected++;
+            claimed++;
+        }
+
+        boolean playing() {
+            return state == gameState.PLAYING;
+        }
+    }
+
+    /**
+     * A user interface that shows nothing, so the benchmark measures the game's own allocations.
+     */
+    private static class SilentUserInterface implements UserInterface {
+        public void placeCard(int card, int slot) {}
+        public void removeCard(int slot) {}
+        public void placeCards(int[] cards, int[] slots) {}
+        public void removeCards(int[] slots) {}
+        public void placeToken(int player, int slot) {}
+        public void removeTokens() {}
+        public void removeTokens(int slot) {}
+        public void removeToken(int player, int slot) {}
+        public void setCountdown(long millies, boolean warn) {}
+        public void setElapsed(long millies) {}
+        public void setFreeze(int player, long millies) {}
+        public void setScore(int player, int score) {}
+        public void announceWinner(int[] players) {}
+        public void dispose() {}
+    }
+}
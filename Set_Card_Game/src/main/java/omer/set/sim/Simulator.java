@@ -0,0 +1,300 @@
+package omer.set.sim;
+
+import omer.set.Config;
+import omer.set.Env;
+import omer.set.SetConsumer;
+import omer.set.Util;
+import omer.set.UtilImpl;
+import omer.set.ex.SetIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.logging.Logger;
+
+/**
+ * A headless Monte Carlo simulator of the game rules, for tuning Rows, Columns, FeatureCount and FeatureSize before
+ * changing them in the configuration. Plays many random games in parallel and prints as CSV the distributions of:
+ * the number of sets in a first deal (sets_per_deal), the sets collected until no set is left (sets_collected),
+ * the set free boards the dealer had to reshuffle on the way (dead_boards) and the cards left at the end
+ * (cards_left).
+ * Every worker thread owns its random generator and all its buffers, so on 3-valued decks the game loop allocates
+ * nothing; other decks count the sets on the board through Util::countSets and walk them through Util::forEachSet.
+ * <p>
+ * Usage: Simulator [config file] [games] [threads] [seed]
+ */
+public class Simulator {
+
+    /**
+     * The largest value recorded by each histogram, bigger values are counted in the last bucket.
+     */
+    private static final int HISTOGRAM_SIZE = 1024;
+
+    /**
+     * The number of set free boards after which a game is stopped (a safety net for decks with very few sets).
+     */
+    private static final int MAX_DEAD_BOARDS = 1000;
+
+    private final Env env;
+    private final int games;
+    private final int threads;
+    private final long seed;
+
+    public Simulator(Env env, int games, int threads, long seed) {
+        this.env = env;
+        this.games = games;
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String configFile = args.length > 0 ? args[0] : "config.properties";
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+
+        Logger logger = Logger.getLogger("SetSimulatorLogger");
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, configFile);
+        Util util = new UtilImpl(config);
+        Env env = new Env(logger, config, null, util);
+
+        long start = System.currentTimeMillis();
+        Histograms results = new Simulator(env, games, threads, seed).run();
+        results.print();
+        System.err.printf("simulated %d games of %d cards on %d slots with %d threads in %d ms%n",
+                games, config.deckSize, config.boardSize, threads, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Splits the games between the worker threads and merges their results.
+     *
+     * @return - the merged histograms of all the games.
+     */
+    public Histograms run() throws InterruptedException {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            int share = games / threads + (i < games % threads ? 1 : 0);
+            Worker worker = new Worker(share, random.split());
+            workers.add(worker);
+            workerThreads.add(new Thread(worker, "simulator-" + i));
+        }
+        workerThreads.forEach(Thread::start);
+        Histograms results = new Histograms();
+        for (int i = 0; i < threads; ++i) {
+            workerThreads.get(i).join();
+            results.add(workers.get(i).results);
+        }
+        return results;
+    }
+
+    /**
+     * The distributions collected by the simulation, indexed by value.
+     */
+    public static class Histograms {
+
+        public final long[] setsPerDeal = new long[HISTOGRAM_SIZE];
+        public final long[] setsCollected = new long[HISTOGRAM_SIZE];
+        public final long[] deadBoards = new long[HISTOGRAM_SIZE];
+        public final long[] cardsLeft = new long[HISTOGRAM_SIZE];
+
+        private static void record(long[] histogram, int value) {
+            histogram[Math.min(value, HISTOGRAM_SIZE - 1)]++;
+        }
+
+        private static void add(long[] to, long[] from) {
+            for (int i = 0; i < HISTOGRAM_SIZE; ++i)
+                to[i] += from[i];
+        }
+
+        private void add(Histograms other) {
+            add(setsPerDeal, other.setsPerDeal);
+            add(setsCollected, other.setsCollected);
+            add(deadBoards, other.deadBoards);
+            add(cardsLeft, other.cardsLeft);
+        }
+
+        private static void print(String metric, long[] histogram) {
+            for (int i = 0; i < HISTOGRAM_SIZE; ++i)
+                if (histogram[i] > 0)
+                    System.out.println(metric + "," + i + "," + histogram[i]);
+        }
+
+        /**
+         * Prints all the histograms as CSV rows of metric,value,count.
+         */
+        public void print() {
+            System.out.println("metric,value,count");
+            print("sets_per_deal", setsPerDeal);
+            print("sets_collected", setsCollected);
+            print("dead_boards", deadBoards);
+            print("cards_left", cardsLeft);
+        }
+    }
+
+    /**
+     * Plays its share of the games with its own random generator and buffers.
+     */
+    private class Worker implements Runnable {
+
+        private final int games;
+        private final SplittableRandom random;
+        private final Histograms results = new Histograms();
+
+        private final int setSize = env.config.featureSize;
+        private final int tableSize = env.config.boardSize;
+
+        /**
+         * The deck, where the cards at positions [cursor, deckSize) were not dealt yet.
+         */
+        private final int[] deck = new int[env.config.deckSize];
+        private int cursor;
+
+        /**
+         * The card in each slot of the board (-1 if none), and the slot of each card on the board (-1 if none).
+         */
+        private final int[] board = new int[tableSize];
+        private final int[] slotOf = new int[env.config.deckSize];
+
+        /**
+         * The cards that are still in play (in the deck or on the board).
+         */
+        private final SetIndex remaining = new SetIndex(env);
+
+        /**
+         * The slots of the set that was picked on the board.
+         */
+        private final int[] picked = new int[setSize];
+
+        /**
+         * The cards on the board, and the number of sets to skip before the one that is picked (when searching).
+         */
+        private final int[] onBoard = new int[tableSize];
+        private int skip;
+
+        /**
+         * Picks the set after skip others.
+         */
+        private final SetConsumer pickAfterSkip = set -> {
+            if (skip-- > 0) return true;
+            for (int i = 0; i < setSize; ++i)
+                picked[i] = slotOf[set[i]];
+            return false;
+        };
+
+        private Worker(int games, SplittableRandom random) {
+            this.games = games;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < games; ++i)
+                playGame();
+        }
+
+        private void playGame() {
+            remaining.clear();
+            for (int card = 0; card < deck.length; ++card) {
+                deck[card] = card;
+                remaining.add(card);
+                slotOf[card] = -1;
+            }
+            Arrays.fill(board, -1);
+            cursor = 0;
+            shuffle(0);
+            deal();
+            Histograms.record(results.setsPerDeal, pickSet());
+
+            int collected = 0, dead = 0;
+            while (dead < MAX_DEAD_BOARDS) {
+                if (pickSet() == 0) {
+                    if (!remaining.hasSet()) break;
+                    // the dealer reshuffles a board without sets back into the deck when the round times out
+                    dead++;
+                    returnBoard();
+                    shuffle(cursor);
+                    deal();
+                    continue;
+                }
+                for (int slot : picked) {
+                    remaining.remove(board[slot]);
+                    slotOf[board[slot]] = -1;
+                    board[slot] = -1;
+                }
+                collected++;
+                deal();
+            }
+            Histograms.record(results.setsCollected, collected);
+            Histograms.record(results.deadBoards, dead);
+            Histograms.record(results.cardsLeft, remaining.size());
+        }
+
+        /**
+         * In-place Fisher-Yates shuffle of the cards at positions [from, deckSize) of the deck.
+         */
+        private void shuffle(int from) {
+            for (int i = deck.length - 1; i > from; --i) {
+                int j = from + random.nextInt(i - from + 1);
+                int card = deck[i];
+                deck[i] = deck[j];
+                deck[j] = card;
+            }
+        }
+
+        private void deal() {
+            for (int slot = 0; slot < tableSize && cursor < deck.length; ++slot)
+                if (board[slot] == -1) {
+                    board[slot] = deck[cursor++];
+                    slotOf[board[slot]] = slot;
+                }
+        }
+
+        private void returnBoard() {
+            for (int slot = 0; slot < tableSize; ++slot)
+                if (board[slot] != -1) {
+                    deck[--cursor] = board[slot];
+                    slotOf[board[slot]] = -1;
+                    board[slot] = -1;
+                }
+        }
+
+        /**
+         * Counts the sets on the board and picks one of them uniformly at random (reservoir sampling).
+         *
+         * @return - the number of sets on the board; the slots of the picked set are in picked.
+         */
+        private int pickSet() {
+            if (setSize != 3) return pickSetBySearch();
+            int count = 0;
+            for (int i = 0; i < tableSize; ++i) {
+                if (board[i] == -1) continue;
+                for (int j = i + 1; j < tableSize; ++j) {
+                    if (board[j] == -1) continue;
+                    int third = slotOf[env.util.completionOf(board[i], board[j])];
+                    if (third > j && random.nextInt(++count) == 0) {
+                        picked[0] = i;
+                        picked[1] = j;
+                        picked[2] = third;
+                    }
+                }
+            }
+            return count;
+        }
+
+        private int pickSetBySearch() {
+            int count = 0;
+            for (int card : board)
+                if (card != -1) onBoard[count++] = card;
+            int[] cards = Arrays.copyOf(onBoard, count);
+            int sets = env.util.countSets(cards);
+            if (sets == 0) return 0;
+            skip = random.nextInt(sets);
+            env.util.forEachSet(cards, pickAfterSkip);
+            return sets;
+        }
+    }
+}
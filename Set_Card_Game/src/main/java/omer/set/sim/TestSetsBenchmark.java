@@ -0,0 +1,68 @@
+package omer.set.sim;
+
+import omer.set.Config;
+import omer.set.Util;
+import omer.set.UtilImpl;
+
+import java.util.SplittableRandom;
+import java.util.logging.Logger;
+
+/**
+ * A headless comparison of Util::testSets against Util::testSet on the same random triples of cards.
+ * Exits with status 1 if the two disagree on any triple.
+ * <p>
+ * Usage: TestSetsBenchmark [config file] [triples] [rounds] [seed]
+ */
+public class TestSetsBenchmark {
+
+    public static void main(String[] args) {
+        String configFile = args.length > 0 ? args[0] : "config.properties";
+        int triples = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+
+        Logger logger = Logger.getLogger("SetTestSetsBenchmarkLogger");
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, configFile);
+        Util util = new UtilImpl(config);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] first = new int[triples], second = new int[triples], third = new int[triples];
+        for (int i = 0; i < triples; ++i) {
+            first[i] = random.nextInt(config.deckSize);
+            second[i] = random.nextInt(config.deckSize);
+            // every other triple is completed to a set, so both results are common
+            int completion = i % 2 == 0 ? util.completionOf(first[i], second[i]) : -1;
+            third[i] = completion != -1 ? completion : random.nextInt(config.deckSize);
+        }
+
+        boolean[] scalar = new boolean[triples], batched = new boolean[triples];
+        int[] triple = new int[3];
+        long scalarNanos = Long.MAX_VALUE, batchedNanos = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; ++round) {
+            long start = System.nanoTime();
+            for (int i = 0; i < triples; ++i) {
+                triple[0] = first[i];
+                triple[1] = second[i];
+                triple[2] = third[i];
+                scalar[i] = util.testSet(triple);
+            }
+            scalarNanos = Math.min(scalarNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            util.testSets(first, second, third, batched);
+            batchedNanos = Math.min(batchedNanos, System.nanoTime() - start);
+        }
+
+        int legal = 0;
+        for (int i = 0; i < triples; ++i) {
+            if (scalar[i] != batched[i]) {
+                System.err.printf("testSets disagrees with testSet on cards %d, %d, %d%n", first[i], second[i], third[i]);
+                System.exit(1);
+            }
+            if (scalar[i]) legal++;
+        }
+        System.out.printf("%d triples (%d sets), best of %d rounds: testSet %.2f ns per triple, testSets %.2f ns per triple%n",
+                triples, legal, rounds, (double) scalarNanos / triples, (double) batchedNanos / triples);
+    }
+}